@@ -0,0 +1,82 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+
+package gov.nasa.jpf;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over names of children of a directory in BFS. Names are read from the 
+ * peer side page by page, so content of a huge directory is never stored in
+ * JPF heap as a whole. 
+ * Iterator stores only a name of the last read child, so it sees files that 
+ * were created or deleted after it was created, in the same way as a directory 
+ * stream on a native FS.
+ * @author Ivan Mushketik
+ */
+public class DirectoryIterator implements Iterator<String> {
+  // Directory which children are iterated
+  private FileInfo dir;
+  // Current page of names
+  private String[] page;
+  // Position of the next name in a current page
+  private int pagePos;
+  // Last name in a current page. Next page starts after this name
+  private String lastName;
+  // True if all names were read
+  private boolean finished;
+
+  DirectoryIterator(FileInfo dir) {
+    this.dir = dir;
+  }
+
+  public boolean hasNext() {
+    if (finished) {
+      return false;
+    }
+
+    if (page == null || pagePos == page.length) {
+      page = dir.listPage(lastName);
+      pagePos = 0;
+
+      if (page == null || page.length == 0) {
+        finished = true;
+        page = null;
+        return false;
+      }
+
+      lastName = page[page.length - 1];
+    }
+
+    return true;
+  }
+
+  public String next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    return page[pagePos++];
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("Directory iterator is read-only");
+  }
+}
@@ -38,4 +38,10 @@ class FileAccessInfo {
    * @see FileAccessMode
    */
   static native int getFileAccessMode(String canonicalPath);
+
+  /**
+   * Get class names of factories of custom file backends.
+   * @return array indexed by a file access mode, elements for built-in modes are null
+   */
+  static native String[] getBackendFactories();
 }
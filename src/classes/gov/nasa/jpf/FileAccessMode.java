@@ -31,4 +31,12 @@ public class FileAccessMode {
   public static final int NATIVE_FILE_ACCESS = 2;
   // Write operation ignored. Read operations performed on a native FS
   public static final int BFS_IGNORE_WRITE = 3;
+  // Read/write operations performed in place on a private copy on a native FS.
+  // Changes are rolled back on backtracking
+  public static final int JOURNAL_FILE_ACCESS = 4;
+  // Written data is discarded, only length and modification time are changed.
+  // Read operations are not allowed
+  public static final int SINK_FILE_ACCESS = 5;
+  // Modes of custom backends that are set in config start from this value
+  public static final int FIRST_CUSTOM_ACCESS = 6;
 }
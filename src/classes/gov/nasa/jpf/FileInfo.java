@@ -19,13 +19,16 @@
 
 package gov.nasa.jpf;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Random;
 
 /**
  * FileInfo stores data about all created and deleted files in Backtrackable
  * FileSystem (BFS). Each FileInfo object is unique for every canonical path in 
  * the BFS.
+ * FileInfos form a trie: every FileInfo stores only its own name and a reference
+ * to a parent directory, so a canonical path is never stored as a whole string and
+ * lookup of a file is a walk from a file system root through children arrays.
  * Real data about file state like last modified time, rights, lengths is stored in
  * a FileState class. This separation was made, because file can be renamed (moved)
  * and File class should "see" that old file was deleted, but such files like
@@ -36,70 +39,38 @@ import java.util.Random;
  */
 public class FileInfo {
 
-  // Initial size for an array of FileInfos
-  private static final int INITIAL_FILE_INFOS_SIZE = 1;  
+  // Initial size for an array of file system roots
+  private static final int INITIAL_ROOTS_SIZE = 1;
   // Initial size for an array that stores children files of a file that 
   // is represented by a current FileInfo
   private static final int INITIAL_CHILDREN_SIZE = 1;
   
   // This fields is used on the peer side
-  // FileInfos for all files that were used by SuT during it's run
-  private static FileInfo[] fileInfos = new FileInfo[INITIAL_FILE_INFOS_SIZE];
-  // Number of FileInfo in fileInfos array
-  private static int numberOfFileInfos;
+  // FileInfos for file system roots. All other FileInfos that were used by SuT
+  // during it's run are reachable from roots through children arrays
+  private static FileInfo[] roots = new FileInfo[INITIAL_ROOTS_SIZE];
+  // Number of FileInfo in roots array
+  private static int numberOfRoots;
   
-  // Canonical path of a file
-  private String canonicalPath;
+  // Name of a file in its parent directory. For a file system root it's a
+  // root's path
+  private String name;
+  // FileInfo of a parent directory or null if this is a file system root
+  private FileInfo parent;
   // Current state of a file
   private FileState fileState;  
   
-  // Children of this file
+  // Children of this file sorted by name. Only children that were used by SuT
+  // are here, children that exist only on a native FS aren't
   private FileInfo[] children = null;
   // Number of the childrens in array
   private int numberOfChildren = 0;
+  // Sequence number of the next temp file created in this directory. It's a part
+  // of BFS state, so equal executions create temp files with equal names
+  private int nextTempFileNumber = 0;
 
-  // Create new file in BFS
-  private FileInfo(String filename, boolean isDir, boolean exists) {
-    canonicalPath = filename;
-    
-    fileState = new FileState(isDir);
-    fileState.setDoesExist(exists);    
-    
-    if (isDir) {
-      children = new FileInfo[INITIAL_CHILDREN_SIZE];
-    }
-    
-    if (exists) {
-      fileState.setReadableForSUT(true);
-      fileState.setWritableForSUT(true);
-    }
-    
-  }  
-
-  private FileInfo(String canonicalPath, FileState state) {
-    this.canonicalPath = canonicalPath;
-    fileState = state;
-    
-    if (state.isDir()) {
-      children = new FileInfo[INITIAL_CHILDREN_SIZE];
-    }
-  }
-
-   /**
-   * Add child for this directory
-   * @param child - new child to add
-   */
-  public void addChild(FileInfo child) {
-    if (numberOfChildren == children.length) {
-      FileInfo[] newChildren = new FileInfo[children.length * 2];
-      System.arraycopy(children, 0, newChildren, 0, children.length);
-      
-      children = newChildren;
-    }
-    
-    children[numberOfChildren] = child;
-    numberOfChildren++;
-  }
+  // FileInfos are created only on the peer side
+  private FileInfo() {}
 
   /**
    * Get children of this directory
@@ -112,16 +83,29 @@ public class FileInfo {
   public int numberOfChildren() {
     return numberOfChildren;
   }
-  
+
   /**
-   * Set children of this directory
-   * @param children
+   * Get name of a file in it's parent directory
+   * @return name of a file
    */
-  void clearChildren() {
-    numberOfChildren = 0;
-    // This should help to decrease amount of memory that is used for chidren arrays
-    children = new FileInfo[INITIAL_CHILDREN_SIZE];
+  public String getName() {
+    return name;
   }
+
+  /**
+   * Get FileInfo of a parent directory
+   * @return parent's FileInfo or null if this is a file system root
+   */
+  public FileInfo getParent() {
+    return parent;
+  }
+
+  /**
+   * Get canonical path of a file. Path is built from names of all files on a
+   * way from a file system root to this file.
+   * @return canonical path of a file
+   */
+  public native String getCanonicalPath();
   
   /**
    * Delete file/directory from BFS.
@@ -130,13 +114,11 @@ public class FileInfo {
   public boolean delete() {
 
     // File can be deleted if it exists or it's not a file system root
-    if (fileState.exists() && !isFSRoot(canonicalPath)) {  
-      String parentCP = getParent(canonicalPath);
-      FileInfo parentFI = getFileInfoByCanonicalPath(parentCP);
+    if (fileState.exists() && parent != null) {  
       
       // <2do> Not sure how to check rights for removing file withouth knowledge
       // about if SUT is a file owner (requires JDK7)
-      if (parentFI.fileState.isWritableForSUT()) {
+      if (parent.fileState.isWritableForSUT()) {
         boolean toDelete = false;
         
         // If it's a file we need only to check if deleting opened files is
@@ -193,6 +175,71 @@ public class FileInfo {
    */
   public native String[] list();
 
+  /**
+   * This method returns sorted names of child dirs and files of a file represented
+   * by current file info in a current state. Names are read page by page, so
+   * the peer never builds an array of all names of a huge directory at once.
+   * @return if file represented by a FileInfo is a directory, it returns an array
+   * of names of files in this directory. Otherwise it returns null.
+   */
+  public String[] listNames() {
+    String[] page = listPage(null);
+    if (page == null) {
+      return null;
+    }
+
+    String[] names = page;
+    int size = page.length;
+
+    while (page.length > 0) {
+      page = listPage(names[size - 1]);
+
+      if (size + page.length > names.length) {
+        String[] newNames = new String[Math.max(names.length * 2, size + page.length)];
+        System.arraycopy(names, 0, newNames, 0, size);
+        names = newNames;
+      }
+      System.arraycopy(page, 0, names, size, page.length);
+      size += page.length;
+    }
+
+    if (size < names.length) {
+      String[] result = new String[size];
+      System.arraycopy(names, 0, result, 0, size);
+      return result;
+    }
+
+    return names;
+  }
+
+  /**
+   * Get next portion of sorted names of child dirs and files. Size of a page is
+   * set by jpf-bfs.list_page_size config option.
+   * @param afterName - name after which names should be returned, or null to get
+   * the first page
+   * @return array of names, empty array if there are no more names or null if
+   * file represented by a FileInfo isn't a directory.
+   */
+  native String[] listPage(String afterName);
+
+  /**
+   * Get sorted names of child files that are symbolic links on a native FS and
+   * weren't changed by SUT. Canonical paths of these children aren't paths of
+   * links themselves.
+   * @return array of names, empty array if there are no links or if file
+   * represented by a FileInfo isn't a directory on a native FS.
+   */
+  public native String[] listNativeLinks();
+
+  /**
+   * Get iterator over names of child dirs and files that reads them lazily. This
+   * should be used instead of list() for huge directories.
+   * @return iterator over names of children
+   */
+  public DirectoryIterator listIterator() {
+    return new DirectoryIterator(this);
+  }
+
   /**
    * Move a file represented by this FileInfo.
    * @param destCanonicalPath - new name of a file
@@ -202,37 +249,33 @@ public class FileInfo {
     // If file doesn't exist it can't be moved
     if (fileState.exists()) {
       FileInfo destFI = getFileInfo(destCanonicalPath);
-      FileInfo destParentFI = getFileInfo(getParent(destCanonicalPath));
 
       // Check if renaming permited
-      if (isRenamingPermitted(destParentFI, destFI)) {
+      if (isRenamingPermitted(destFI.parent, destFI)) {
         
         checkRenameConfig();
         // State of file to move
-        FileState state = new FileState(fileState);
-
-        // Destanation file doesn't exist
-        if (destFI == null) {
-          FileInfo newFI = new FileInfo(destCanonicalPath, state);
-          newFI.fileState = state;
-          addNewFI(newFI);
-
-        } else {
-          destFI.fileState = state;
-        }
+        destFI.fileState = new FileState(fileState);
 
         // Move all child files
         if (fileState.isDir()) {
-          String[] children = list();
-          for (String child : children) {
-            FileInfo childFI = getFileInfo(child);
-            if (childFI.exists()) {
-              String childCP = childFI.canonicalPath;
-              String destChildCP = childCP.replace(canonicalPath, destCanonicalPath);
-
-              childFI.renameTo(destChildCP);
+          // Destination directory shares native content with this one, so children
+          // that were deleted by SUT should be deleted in the destination too
+          for (int i = 0; i < numberOfChildren; i++) {
+            FileInfo childFI = children[i];
+            if (!childFI.exists()) {
+              FileInfo destChildFI = getFileInfo(destCanonicalPath + File.separator + childFI.name);
+              // State of a destination child keeps access mode and flags that
+              // were set for a destination path
+              destChildFI.fileState.setDoesExist(false);
             }
           }
+
+          String[] childrenCPs = list();
+          for (String child : childrenCPs) {
+            FileInfo childFI = getFileInfo(child);
+            childFI.renameTo(destCanonicalPath + File.separator + childFI.name);
+          }
         }
 
         // Mark file that was renamed as deleted
@@ -269,78 +312,38 @@ public class FileInfo {
 
   /**
    * Get FileInfo with data about a file with specified canonical path. If FI was
-   * already created it will be returned, otherwise info about this file will be read
-   * from native FS.
+   * already created it will be returned, otherwise FileInfos for this file and
+   * all its parents that weren't used before are created with data read from 
+   * native FS.
    * @param canonicaPath - canonical path of file
-   * @return FileInfo about a file if it was created during SUT run, or it exists on
-   * a native FS and wasn't deleted. Otherwise return null.
+   * @return FileInfo about a file. If file doesn't exist on a native FS and
+   * wasn't created during SUT run FileInfo for a non-existing file is returned.
    */
-  public static synchronized FileInfo getFileInfo(String canonicaPath) {
-    FileInfo newFI = getFileInfoByCanonicalPath(canonicaPath);
-
-    if (newFI != null) {
-      return newFI;
-    }
-
-    newFI = createNewFileInfo(canonicaPath);
-    
-    if (newFI == null) {
-      newFI = new FileInfo(canonicaPath, true, false);
-      newFI.fileState.setDoesExist(false);
-    }
-
-    int fileMode = FileAccessInfo.getFileAccessMode(canonicaPath);
-    newFI.fileState.setFileAccessMode(fileMode);
-    addNewFI(newFI);
-    
-    
-    return newFI;
-
-  }
+  public static native FileInfo getFileInfo(String canonicaPath);
 
   /**
-   * Add new FileInfo
-   * @param newFI - FileInfo to add
+   * Find FileInfo of a file with specified canonical path. Unlike getFileInfo()
+   * this method doesn't create FileInfo for a file that wasn't used by SUT and
+   * doesn't exist on a native FS, so checks of missing files don't grow BFS state.
+   * @param canonicalPath - canonical path of file
+   * @return FileInfo about a file or null if file doesn't exist
    */
-  private static void addNewFI(FileInfo newFI) {
-    String cp = newFI.canonicalPath;
-    String parentCP = getParent(cp);
-
-    if (parentCP != null) {
-      FileInfo parentFI = getFileInfo(parentCP);
-
-      /**
-       * If parent doesn't exist or was deleted or removed current file should be
-       * marked as deleted.
-       */
-      if (!parentFI.exists()) {
-        newFI.fileState.setDoesExist(false);
-      }
-      
-      parentFI.addChild(newFI);
-    }
-
-    addFileInfoToArray(newFI);
-  }
+  public static native FileInfo findFileInfo(String canonicalPath);
 
   /**
-   * Create new file with a specified canonical path
-   * @param canonicalPath - canonical path of a new file
+   * Create new file in a directory represented by a parent FileInfo
    * @return true if file was created, false otherwise.
    */
-  public boolean createNewFile(String canonicalPath) throws IOException {   
+  public boolean createNewFile() throws IOException {   
 
     if (!fileState.exists()) {
-      String parentCP = getParent(canonicalPath);
-      FileInfo parentFI = getFileInfo(parentCP);
-
-      if (parentFI != null && parentFI.fileState.exists()) {
-        if (parentFI.fileState.isWritableForSUT()) {
+      if (parent != null && parent.fileState.exists()) {
+        if (parent.fileState.isWritableForSUT()) {
           setNewFileState(false);
-          //parentFI.fileState.addChild(this);
 
           // We need to create file on native FS for read/write operations
-          if (fileState.getFileAccessMode() != FileAccessMode.BFS_FILE_ACCESS) {
+          int fileMode = fileState.getFileAccessMode();
+          if (fileMode != FileAccessMode.BFS_FILE_ACCESS && fileMode != FileAccessMode.SINK_FILE_ACCESS) {
             String tempFile = createFileForNativeAccess();
             fileState.setNativeFSFileName(tempFile);
           }
@@ -349,7 +352,7 @@ public class FileInfo {
           return true;
 
         } else {
-          throw new IOException("SUT has no write permission for a directory " + parentFI.canonicalPath);
+          throw new IOException("SUT has no write permission for a directory " + parent.getCanonicalPath());
         }
       }
     }
@@ -361,41 +364,22 @@ public class FileInfo {
     fileState.setIsDir(isDir);
     fileState.setDoesExist(true);
     fileState.setNativeFSFileName(null);
+    fileState.clearContent();
     
     fileState.setWritableForSUT(true);
     fileState.setReadableForSUT(true);
   }
 
   /**
-   * Create FileInfo for a file with specified canonical path with data read from
-   * a file on a native file system.
-   * @param canonicalPath - canonical path of a file.
-   * @return FileInfo for a specified file if one exists, null otherwise.
-   */
-  private static native FileInfo createNewFileInfo(String canonicalPath);
-
-  /**
-   * Get file name of a parent for a file with specified name of a file.
-   * @param filename
-   * @return file name of a parent or null.
-   */
-  private static native String getParent(String filename);
-
-  /**
-   * Create a directory with specified canonical path.
-   * @param canonicalPath - canonical path of a directory to create.
+   * Create a directory represented by this FileInfo.
    * @return true if directory was created, false otherwise
    */
   public boolean mkdir() {
     if (!fileState.exists()) {
-      String parentCP = getParent(canonicalPath);
-      FileInfo parentFI = getFileInfo(parentCP);
-
-      if (parentFI != null && parentFI.fileState.exists() && 
-          parentFI.fileState.isWritableForSUT()) {        
+      if (parent != null && parent.fileState.exists() && 
+          parent.fileState.isWritableForSUT()) {        
         
         setNewFileState(true);
-        //fileState.clearChildren(new ArrayList<FileInfo>());
         
         return true;
       }
@@ -405,9 +389,8 @@ public class FileInfo {
   }
 
   /**
-   * Create all directories that needed to be created for a directory with
-   * given canonical path.
-   * @param canonicalPath - canonical path of a directory that should be created.
+   * Create all directories that needed to be created for a directory represented
+   * by this FileInfo.
    * @param firstCall - true if this call to this function is the first one, false
    * otherwise.
    * @return true if all directories were created, false otherwise.
@@ -416,16 +399,10 @@ public class FileInfo {
     
     // File not exists    
     if (!fileState.exists()) {
-      // File was deleted
-      String parent = getParent(canonicalPath);
-      FileInfo parentFI = getFileInfo(parent);
-      
-      if (parentFI.mkdirs(false)) {
+      // Directory that was deleted can be created only if it was empty, so
+      // children FileInfos all represent deleted files and can be left as is
+      if (parent != null && parent.mkdirs(false)) {
         setNewFileState(true);
-        
-        this.clearChildren();
-        
-        parentFI.addChild(this);
 
         return true;
       } else {
@@ -445,14 +422,6 @@ public class FileInfo {
     return false;
   }
 
-  /**
-   * Find and get FileInfo for a file with specified canonical path.
-   * @param canonicalPath - canonical path of a directory
-   * @return FileInfo if one for a file with specified canonical path was created,
-   * null otherwise.
-   */
-  private static native FileInfo getFileInfoByCanonicalPath(String canonicalPath);
-
   /**
    * Create new temporary file.
    * @param tempDir - canonical path of a directory to create file in.
@@ -464,22 +433,19 @@ public class FileInfo {
   public static String createTempFile(String tempDir, char separatorChar, String prefix, String suffix) {
     FileInfo fi = getFileInfo(tempDir);
 
-    if (fi != null && fi.fileState.exists() && fi.fileState.isDir()) {
+    if (fi.fileState.exists() && fi.fileState.isDir()) {
 
-      Random rand = new Random();
       while (true) {
-        // <2do> This should create new ChoiceGenerator. Maybe replace it with UUID?
-        String uuid = Long.toString(rand.nextLong());
-        String tempFileName = prefix + uuid + suffix;
+        String tempFileName = prefix + fi.nextTempFileNumber++ + suffix;
 
         String newFileCP = tempDir + separatorChar + tempFileName;
 
-        FileInfo newFileFI = getFileInfoByCanonicalPath(newFileCP);
+        FileInfo newFileFI = getFileInfo(newFileCP);
 
         // No file with such filename exists.
-        if (newFileFI == null) {
+        if (!newFileFI.exists()) {
           // Create new file
-          createNewFileFI(newFileCP);
+          newFileFI.setNewFileState(false);
           return newFileCP;
         }
       }
@@ -487,11 +453,6 @@ public class FileInfo {
 
     return null;
   }
-  
-  private static void createNewFileFI(String newFileCP) {
-    FileInfo newFI = new FileInfo(newFileCP, false, true);
-    addNewFI(newFI);
-  }
 
   /**
    * Create temp file for a native access mode. If a canonical path of a new file
@@ -502,41 +463,10 @@ public class FileInfo {
    * @return canonical path of a temp file that can be used for a native access.
    */
   private static native String createFileForNativeAccess();
-
-  /**
-   * Check if specified canonical path is a file system root on this system.
-   * @param canonicalPath - canonical path of a file.
-   * @return true if it's a file system's root, false otherwise.
-   */
-  private static native boolean isFSRoot(String canonicalPath);
-
-  /**
-   * Get canonical paths of a file's children on a native FS
-   * @param canonicalPath - canonical path of a file
-   * @return array of canonical paths of file's children if file exists on native
-   * FS. If file doesn't exists return null.
-   */
-  private static native String[] getChildrenCPs(String canonicalPath);
-
-  /**
-   * Add new FileInfo to fileInfos array
-   * @param fi - FileInfo to add.
-   */
-  private static native void addFileInfoToArray(FileInfo fi);
-  
-  /**
-   * Find file info with a specified canonical path. This method return object pos
-   * in the same fasion as Arrrays.binarySearch() does.
-   * 
-   * @param cannonicalPath
-   * @return if FileInfo found, return it's index in array. otherwise it returns
-   * -pos - 1; where pos - is a place where new element should be inserted.
-   */
-  private native static int findFileInfo(String cannonicalPath);
   
   @Override
   public String toString() {
-    String result = "CP: " + canonicalPath + "; ";
+    String result = "CP: " + getCanonicalPath() + "; ";
     result += "Number of children: " + numberOfChildren + "; ";
     result += "FS: " + fileState;
 
@@ -0,0 +1,90 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf;
+
+/**
+ * Table of FileInterface factories indexed by a file access mode. Built-in
+ * modes are listed in FileAccessMode, modes of custom backends follow them in
+ * order in which backends are set in JPF config.
+ * @author Ivan Mushketik
+ */
+class FileInterfaceRegistry {
+
+  private static final FileInterfaceFactory[] factories;
+
+  static {
+    String[] customFactories = FileAccessInfo.getBackendFactories();
+    factories = new FileInterfaceFactory[Math.max(FileAccessMode.SINK_FILE_ACCESS + 1, customFactories.length)];
+
+    factories[FileAccessMode.BFS_FILE_ACCESS] = new FileInterfaceFactory() {
+      public FileInterface create(FileState fileState) {
+        return new BFSFileInterface(fileState);
+      }
+    };
+
+    factories[FileAccessMode.NATIVE_FILE_ACCESS] = new FileInterfaceFactory() {
+      public FileInterface create(FileState fileState) {
+        return new NativeFileInterface(fileState, false);
+      }
+    };
+
+    factories[FileAccessMode.BFS_IGNORE_WRITE] = new FileInterfaceFactory() {
+      public FileInterface create(FileState fileState) {
+        return new NativeFileInterface(fileState, true);
+      }
+    };
+
+    // Journal mode differs from native mode only on the peer side
+    factories[FileAccessMode.JOURNAL_FILE_ACCESS] = factories[FileAccessMode.NATIVE_FILE_ACCESS];
+
+    factories[FileAccessMode.SINK_FILE_ACCESS] = new FileInterfaceFactory() {
+      public FileInterface create(FileState fileState) {
+        return new SinkFileInterface(fileState);
+      }
+    };
+
+    for (int mode = 0; mode < customFactories.length; mode++) {
+      if (customFactories[mode] != null) {
+        factories[mode] = newFactory(customFactories[mode]);
+      }
+    }
+  }
+
+  private static FileInterfaceFactory newFactory(String className) {
+    try {
+      return (FileInterfaceFactory) Class.forName(className).newInstance();
+
+    } catch (Exception ex) {
+      throw new RuntimeException("Unable to create file interface factory " + className, ex);
+    }
+  }
+
+  /**
+   * Create FileInterface for a file with a specified access mode
+   */
+  static FileInterface create(int fileMode, FileState fileState) {
+    FileInterfaceFactory factory = (fileMode >= 0 && fileMode < factories.length) ? factories[fileMode] : null;
+
+    if (factory == null) {
+      throw new UnsupportedOperationException("Not supported file access mode " + fileMode);
+    }
+
+    return factory.create(fileState);
+  }
+}
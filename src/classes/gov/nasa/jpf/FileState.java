@@ -19,6 +19,8 @@
 
 package gov.nasa.jpf;
 
+import gov.nasa.jpf.annotation.FilterField;
+import gov.nasa.jpf.jvm.Verify;
 import java.io.FileDescriptor;
 
 /**
@@ -26,16 +28,37 @@ import java.io.FileDescriptor;
  * @author Ivan Mushketik
  */
 public class FileState {
-  // Length of a file
+  // Bits of a mode word. Lower 9 bits are POSIX permission bits
+  public static final int OWNER_READ = 0400;
+  public static final int OWNER_WRITE = 0200;
+  public static final int OWNER_EXECUTE = 0100;
+  public static final int GROUP_READ = 040;
+  public static final int GROUP_WRITE = 020;
+  public static final int GROUP_EXECUTE = 010;
+  public static final int ALL_READ = 04;
+  public static final int ALL_WRITE = 02;
+  public static final int ALL_EXECUTE = 01;
+  // Rights of SUT to a file
+  public static final int SUT_READ = 01000;
+  public static final int SUT_WRITE = 02000;
+  public static final int SUT_EXECUTE = 04000;
+  // File is a directory
+  public static final int DIRECTORY = 010000;
+  // File exists
+  public static final int EXISTS = 020000;
+  // Content and length of a file aren't used in state matching
+  public static final int CONTENT_ABSTRACTED = 040000;
+
+  // Type, existence and permissions of a file packed in a single word
+  private int mode;
+  // Length of a file. Length is a part of content fingerprint, so it isn't
+  // used in state matching separately
+  @FilterField
   private long length;
-  // True if this is a directory, false otherwise
-  private boolean isDir;
   // nO - nC; nO - number of open() operations nC - number of close() operations
   private int openCnt;
   // File/directory that represents this file/directory content on a native FS
   private String nativeFSFileName;
-  // True if file/directory exists
-  private boolean doesExist;
   
   // Time of last modification
   private long lastModified;
@@ -44,51 +67,74 @@ public class FileState {
 
   // Field that is read during each read operation with a file, and changed
   // during each write operations. It's used to find races in file operations
-  // by PreciseRaceDetector.
+  // by PreciseRaceDetector. Its value only counts operations, so it isn't used
+  // in state matching
+  @FilterField
   private int lastOperation;
 
+  // Sets of threads that read/wrote this file, bit sets indexed by thread id.
+  // They are used to find conflicting file operations if file partial order
+  // reduction is enabled
+  private int[] readers;
+  private int[] writers;
+
+  // True if operations with different files are considered independent
+  private static final boolean isFilePOR = isFilePOREnabled();
+
   // Last write chunk represents data that was written to this file. Also it's a
   // start of a list of write chunks that were written from SuT start to a current 
-  // state
+  // state. Different lists can represent the same content, so this list isn't
+  // used in state matching, contentHash is used instead
+  @FilterField
   private WriteChunk lastWriteChunk;
-  
-  private boolean isReadableForSUT;
-  private boolean isWritableForSUT;
-  private boolean isExecutableForSUT;
-    
-  private boolean isReadableForAll;
-  private boolean isWritableForAll;
-  private boolean isExecutableForAll;
-  
-  private boolean isReadableForGroup;
-  private boolean isWritableForGroup;
-  private boolean isExecutableForGroup;  
-  
-  private boolean isReadalbeForOwner;
-  private boolean isWritableForOwner;
-  private boolean isExecutableForOwner;
+  // Fingerprint of a file content. It's a sum of hashes of all (position, byte)
+  // pairs of a current content and a hash of its length, minus the same sum for
+  // a content of a native file. It's updated on every write and length change,
+  // so equal contents have equal fingerprints regardless of the order of writes.
+  // It's always zero if content is abstracted, except for sink files, which
+  // content isn't stored, so their fingerprint is a hash of a length only
+  private long contentHash;
   
   public FileState(boolean isDir) { 
-    this.isDir = isDir;
+    setIsDir(isDir);
   }
   
   public FileState(FileState fs) {
+    mode = fs.mode;
     length = fs.length;
-    isDir = fs.isDir;
     openCnt = fs.openCnt;
     nativeFSFileName = fs.nativeFSFileName;
-    doesExist = fs.doesExist;
-    
-    isReadableForSUT = fs.isReadableForSUT;
-    isWritableForSUT = fs.isWritableForSUT;
-    isExecutableForSUT = fs.isExecutableForSUT;
-    // <2do> Add other rights coping
-    
     lastWriteChunk = fs.lastWriteChunk;
+    contentHash = fs.contentHash;
     lastModified = fs.lastModified;
     fileMode = fs.fileMode;
   }
 
+  /**
+   * Get type, existence and permissions of a file
+   * @return mode word, a combination of FileState's mode bits
+   */
+  public int getMode() {
+    return mode;
+  }
+
+  /**
+   * Check if all specified mode bits are set
+   * @param mask - combination of FileState's mode bits
+   * @return true if all bits are set
+   */
+  public boolean isSet(int mask) {
+    return (mode & mask) == mask;
+  }
+
+  private void set(int mask, boolean value) {
+    if (value) {
+      mode |= mask;
+    } else {
+      mode &= ~mask;
+    }
+  }
+
   /**
    * Get file's length
    * @return file's length
@@ -98,12 +144,21 @@ public class FileState {
   }
 
   /**
-   * Set new file length
+   * Set new file length. Bytes removed by truncation and the new length are
+   * taken into account in a content fingerprint.
    * 
    * @param newLength - new length of a file
    */
-  public void setLength(long newLength) {
-    length = newLength;
+  public native void setLength(long newLength);
+
+  /**
+   * Remove content of a file. It's used when a new file is created in place of
+   * a deleted one
+   */
+  void clearContent() {
+    length = 0;
+    lastWriteChunk = null;
+    contentHash = 0;
   }
 
   /**
@@ -111,7 +166,7 @@ public class FileState {
    * @return true if this is a directory, false otherwise
    */
   public boolean isDir() {
-    return isDir;
+    return isSet(DIRECTORY);
   }
 
   /**
@@ -119,14 +174,14 @@ public class FileState {
    * @param isDir true if this is a directory now.
    */
   public void setIsDir(boolean isDir) {
-    this.isDir = isDir;
+    set(DIRECTORY, isDir);
   }
 
   /**
    * Get number of open operations minus number of close operations
    * @return
    */
-  public synchronized  int getOpenCnt() {
+  public int getOpenCnt() {
     return openCnt;
   }
 
@@ -152,7 +207,7 @@ public class FileState {
    * @return true if file exists
    */
   public boolean exists() {
-    return doesExist;
+    return isSet(EXISTS);
   }
 
   /**
@@ -160,103 +215,103 @@ public class FileState {
    * @param exists - true if file exists
    */
   public void setDoesExist(boolean exists) {
-    this.doesExist = exists;
+    set(EXISTS, exists);
   }
 
   public boolean isReadableForSUT() {
-    return isReadableForSUT;
+    return isSet(SUT_READ);
   }
 
   public void setReadableForSUT(boolean readableForSUT) {
-    isReadableForSUT = readableForSUT;
+    set(SUT_READ, readableForSUT);
   }
 
   public boolean isWritableForSUT() {
-    return isWritableForSUT;
+    return isSet(SUT_WRITE);
   }
 
   public void setWritableForSUT(boolean writableForSUT) {
-    isWritableForSUT = writableForSUT;
+    set(SUT_WRITE, writableForSUT);
   }
 
   public boolean isExecutableForSUT() {
-    return isExecutableForSUT;
+    return isSet(SUT_EXECUTE);
   }
 
   public void setExecutableForSUT(boolean executableForSUT) {
-    isExecutableForSUT = executableForSUT;
+    set(SUT_EXECUTE, executableForSUT);
   }
 
   public boolean isReadableForOwner() {
-    return isReadalbeForOwner;
+    return isSet(OWNER_READ);
   }
 
   public void setReadableForOwner(boolean readableForOwner) {
-    isReadalbeForOwner = readableForOwner;
+    set(OWNER_READ, readableForOwner);
   }
 
   public boolean isWritableForOwner() {
-    return isWritableForOwner;
+    return isSet(OWNER_WRITE);
   }
 
   public void setWritableForOwner(boolean writableForOwner) {
-    isWritableForOwner = writableForOwner;
+    set(OWNER_WRITE, writableForOwner);
   }
 
   public boolean isExecutableForOwner() {
-    return isExecutableForOwner;
+    return isSet(OWNER_EXECUTE);
   }
 
   public void setExecutableForOwner(boolean executableForOwner) {
-    isExecutableForOwner = executableForOwner;
+    set(OWNER_EXECUTE, executableForOwner);
   }
 
   public boolean isReadableForGroup() {
-    return isReadableForGroup;
+    return isSet(GROUP_READ);
   }
 
   public void setReadableForGroup(boolean readableForGroup) {
-    isReadableForGroup = readableForGroup;
+    set(GROUP_READ, readableForGroup);
   }
 
   public boolean isWritableForGroup() {
-    return isWritableForGroup;
+    return isSet(GROUP_WRITE);
   }
 
   public void setWritableForGroup(boolean writableForGroup) {
-    isWritableForGroup = writableForGroup;
+    set(GROUP_WRITE, writableForGroup);
   }
 
   public boolean isExecutableForGroup() {
-    return isExecutableForGroup;
+    return isSet(GROUP_EXECUTE);
   }
 
   public void setExecutableForGroup(boolean executableForGroup) {
-    isExecutableForGroup = executableForGroup;
+    set(GROUP_EXECUTE, executableForGroup);
   }
 
   public boolean isReadableForAll() {
-    return isReadableForAll;
+    return isSet(ALL_READ);
   }
 
   public void setReadableForAll(boolean readableForAll) {
-    isReadableForAll = readableForAll;
+    set(ALL_READ, readableForAll);
   }
 
   public boolean isWritableForAll() {
-    return isWritableForAll;
+    return isSet(ALL_WRITE);
   }
 
   public void setWritableForAll(boolean writableForAll) {
-    isWritableForAll = writableForAll;
+    set(ALL_WRITE, writableForAll);
   }
 
   public boolean isExecutableForAll() {
-    return isExecutableForAll;
+    return isSet(ALL_EXECUTE);
   }
 
   public void setExecutableForAll(boolean executableForAll) {
-    isExecutableForAll = executableForAll;
+    set(ALL_EXECUTE, executableForAll);
   }
 
   /**
@@ -283,32 +338,20 @@ public class FileState {
     this.fileMode = fileMode;
   }
   
-  public void updateLastModified() {
-    lastModified = System.currentTimeMillis();
-  }
+  /**
+   * Update time of last modification after a file was changed. New time depends
+   * on the clock set in JPF config
+   */
+  public native void updateLastModified();
 
   /**
    * Open a file with a mode specified in config for this file
    * @return FileDescriptor that can be used to perform file operations with this 
    * file.
    */
-  public synchronized FileDescriptor open(String canonicalPath) {
-    if (exists() && !isDir()) {
-      openCnt++;
-
-      FileInterface fi;
-      if (fileMode == FileAccessMode.BFS_FILE_ACCESS) {
-        fi = new BFSFileInterface(this);
-
-      } else if (fileMode == FileAccessMode.NATIVE_FILE_ACCESS) {
-        fi = new NativeFileInterface(this, false);
-
-      } else if (fileMode == FileAccessMode.BFS_IGNORE_WRITE) {
-        fi = new NativeFileInterface(this, true);
-
-      } else {
-        throw new UnsupportedOperationException("Not supported file access mode " + fileMode);
-      }
+  public FileDescriptor open(String canonicalPath) {
+    if (incOpenCnt()) {
+      FileInterface fi = FileInterfaceRegistry.create(fileMode, this);
 
       return new FileDescriptor(fi, this, canonicalPath);
     }
@@ -316,23 +359,72 @@ public class FileState {
     return null;
   }
 
-  public synchronized void close() {
-    openCnt--;
-  }
+  // Open counter is changed by peer's methods, so open/close operations don't
+  // acquire a monitor and don't create scheduling points in a SUT
+
+  /**
+   * Increment open counter if this is an existing file
+   * @return true if counter was incremented
+   */
+  private native boolean incOpenCnt();
+
+  public native void close();
 
   // We need markRead/markWrite to create race with access to lastOperation field
   // if this file is read/written or written/written from several threads at the
   // same time with no synchronization this will be detected by
-  // PreciseRaceDetector
+  // PreciseRaceDetector.
+  // If file partial order reduction is enabled lastOperation is accessed only on
+  // the first access of a thread to a file and if a file operation conflicts with
+  // an operation of another thread, so further operations of a thread with files
+  // that other threads don't use don't create scheduling points
 
   public void markWrite() {
-    lastOperation++;
+    if (!isFilePOR || isConflictingAccess(true)) {
+      lastOperation++;
+    }
   }
 
   public int markRead() {
-    return lastOperation;
+    if (!isFilePOR || isConflictingAccess(false)) {
+      return lastOperation;
+    }
+
+    return 0;
   }
-  
+
+  /**
+   * Start of a file operation. If file partial order reduction is enabled file
+   * operation is executed atomically, since it can interfere only with operations
+   * on the same file, and these are already separated by markRead/markWrite.
+   */
+  public void beginOperation() {
+    if (isFilePOR) {
+      Verify.beginAtomic();
+    }
+  }
+
+  /**
+   * End of a file operation started with beginOperation()
+   */
+  public void endOperation() {
+    if (isFilePOR) {
+      Verify.endAtomic();
+    }
+  }
+
+  private static native boolean isFilePOREnabled();
+
+  /**
+   * Check if current thread's access to this file can conflict with accesses of
+   * other threads, i.e. it's the first access of a thread to this file, another
+   * thread wrote this file, or another thread read it and current thread writes it.
+   * First access is included, since another thread can make its first access to
+   * a file before this one.
+   * @param isWrite - true if current thread writes a file
+   */
+  private native boolean isConflictingAccess(boolean isWrite);
+
   /**
    * Write data to a BFS file.
    * @param startPos - offset from the beginning of a file
@@ -354,16 +446,14 @@ public class FileState {
   native int read(long startPos, byte[] data, int offset, int length);
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     String result;
     result = "length = " + length;
-    result += "; isDir = " + isDir;
-    result += "; exists = " + doesExist;
+    result += "; isDir = " + isDir();
+    result += "; exists = " + exists();
     result += "; openCnt = " + openCnt;
     result += "; nativeFSName = " + nativeFSFileName;
-    result += "; canRead = " + isReadableForSUT;
-    result += "; canWrite = " + isWritableForSUT;
-    result += "; canExecute = " + isExecutableForSUT;
+    result += "; mode = " + Integer.toOctalString(mode);
     result += "; file mode = " + fileMode;
     result += "; last modified = " + lastModified;
 
@@ -19,12 +19,14 @@
 
 package gov.nasa.jpf;
 
+import gov.nasa.jpf.annotation.FilterField;
 import java.io.IOException;
 
 /**
  * File interface that perform read/write operations with native file system.
  * This can be used to decrease BFS overhead, in cases when backtrackable operations
- * isn't needed.
+ * isn't needed. In journal access mode a private copy of a file is used, and
+ * changes are rolled back by the peer when search backtracks.
  * @author Ivan Mushketik
  */
 public class NativeFileInterface extends FileInterface {
@@ -32,6 +34,13 @@ public class NativeFileInterface extends FileInterface {
   // Canonical path of a file on which read/write should be performed
   private String canonicalPath;
   boolean ignoreWriteMode;
+  // Slot and serial number of a host file handle in a peer's handle table.
+  // Handles differ between executions, so they aren't a part of a program state
+  @FilterField private int handle;
+  @FilterField private int handleSerial;
+  // Host file isn't backtracked, so length that is cached in a FileState is valid
+  // only if no backtracking was done since it was read
+  @FilterField private int lengthEpoch;
 
   public NativeFileInterface(FileState fileState, boolean ignoreWriteMode) {}
 
@@ -57,7 +66,6 @@ public class NativeFileInterface extends FileInterface {
     if (written > 0) {
       filePos += written;
     }
-    fileState.updateLastModified();
   }
 
   private native int writeNative(byte[] buf, int off, int len) throws IOException;
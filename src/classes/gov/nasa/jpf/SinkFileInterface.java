@@ -0,0 +1,81 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf;
+
+import java.io.IOException;
+
+/**
+ * File interface for write-only files like logs and traces. Written data is
+ * discarded, only file length and time of last modification are changed, so
+ * writes have no content overhead. Content of such file isn't used in state
+ * matching and it can't be read.
+ * @author Ivan Mushketik
+ */
+public class SinkFileInterface extends FileInterface {
+
+  SinkFileInterface(FileState fileState) {
+    this.fileState = fileState;
+  }
+
+  public void sync() {
+    // Nothing to sync, data isn't stored
+  }
+
+  public int read(byte[] buf, int off, int len) throws IOException {
+    throw new IOException("Attempt to read file in sink mode");
+  }
+
+  public int available() throws IOException {
+    long available = fileState.getLength() - filePos;
+
+    return (available > 0) ? (int) available : 0;
+  }
+
+  public void write(byte[] buf, int off, int len) throws IOException {
+    filePos += len;
+
+    if (filePos > fileState.getLength()) {
+      fileState.setLength(filePos);
+    }
+  }
+
+  public void close() throws IOException {
+    fileState.close();
+  }
+
+  public void setLength(long newLength) throws IOException {
+    fileState.setLength(newLength);
+
+    if (filePos > newLength) {
+      filePos = newLength;
+    }
+  }
+
+  public void seek(long pos) throws IOException {
+    filePos = pos;
+  }
+
+  public long length() {
+    return fileState.getLength();
+  }
+
+  public long getFilePointer() {
+    return filePos;
+  }
+}
@@ -36,6 +36,9 @@ public class WriteChunk {
   // Name of a file in a special cache directory, that stores all data that was
   // written by a SUT during its run.
   private String fileName;
+  // Sum of hashes of (position, byte) pairs of chunk's data. It's used to update
+  // a content fingerprint of a file without reading chunk's data
+  private long hash;
   // Chunk that was written before this chunk. If null, then no data was written
   // before this one
   private WriteChunk prevChunk;
@@ -24,6 +24,7 @@ import gov.nasa.jpf.FileState;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Arrays;
 
 
 /**
@@ -31,6 +32,10 @@ import java.net.URL;
  * File object has a reference to a FileInfo that stores file state of current file.
  * While FileInfo object is unique for each unique canonical path in the system,
  * several File objects can be created for a single file in BFS.
+ * Canonical path and FileInfo are resolved on the first operation that needs
+ * file system state, so File objects that are used only as paths never touch BFS.
+ * FileInfo of a file that doesn't exist is created only when SUT tries to create
+ * a file or open it, so checks of missing files don't change BFS state.
  * @author Ivan Mushketik
  */
 public class File
@@ -42,12 +47,43 @@ public class File
 
   // Filename that was specified by user during file creataion
   private String filename;
-  // Canonical path of a current file on a BFS
+  // Canonical path of a current file on a BFS or null if it wasn't resolved yet
   private String canonicalPath;
-  // Reference to a FileInfo for this file 
+  // Reference to a FileInfo for this file or null if it wasn't resolved yet or
+  // file didn't exist when it was looked up
   private FileInfo fileInfo;
 
+  /**
+   * Get canonical path of this file. Path is canonicalized on the first call.
+   */
+  private String getBFSPath() {
+    if (canonicalPath == null) {
+      canonicalPath = getCanonicalPath(filename);
+    }
+
+    return canonicalPath;
+  }
+
+  /**
+   * Get FileInfo of this file. FileInfo is created if it doesn't exist yet.
+   */
   protected FileInfo getFileInfo() {
+    if (fileInfo == null) {
+      fileInfo = FileInfo.getFileInfo(getBFSPath());
+    }
+
+    return fileInfo;
+  }
+
+  /**
+   * Find FileInfo of this file without creating it.
+   * @return FileInfo or null if this file doesn't exist
+   */
+  private FileInfo findFileInfo() {
+    if (fileInfo == null) {
+      fileInfo = FileInfo.findFileInfo(getBFSPath());
+    }
+
     return fileInfo;
   }
 
@@ -58,33 +94,60 @@ public class File
     }
     
     this.filename = filename;
-    canonicalPath = getCanonicalPath(filename);
-    fileInfo = FileInfo.getFileInfo(canonicalPath);
   }
 
   private static native String getCanonicalPath(String filename);
 
   public File (String parent, String child) {
   	filename = parent + separator + child;
-    canonicalPath = getCanonicalPath(filename);
-    fileInfo = FileInfo.getFileInfo(canonicalPath);
   }
   
   public File (File parent, String child) {
-    filename = parent.canonicalPath + separator + child;
-    canonicalPath = getCanonicalPath(filename);
-    
-    fileInfo = FileInfo.getFileInfo(canonicalPath);
+    filename = parent.filename + separator + child;
+  }
+
+  private File getChild(String childName, boolean isLink) {
+    String parentCP = getBFSPath();
+    String childCP;
+    // Only file system roots end with a separator
+    if (parentCP.endsWith(separator)) {
+      childCP = parentCP + childName;
+    } else {
+      childCP = parentCP + separator + childName;
+    }
+
+    // Names of children are read from a directory itself, so child's path is
+    // already canonical, unless a child is a symbolic link. Canonical path of
+    // a link is resolved on a native FS on first use
+    File child = new File(childCP);
+    if (!isLink) {
+      child.canonicalPath = childCP;
+    }
+
+    return child;
+  }
+
+  private File[] getChildren(String[] childNames) {
+    // Sorted names of children that are symbolic links on a native FS
+    String[] links = fileInfo.listNativeLinks();
+    File[] result = new File[childNames.length];
+
+    for (int i = 0; i < childNames.length; i++) {
+      boolean isLink = links.length > 0 && Arrays.binarySearch(links, childNames[i]) >= 0;
+      result[i] = getChild(childNames[i], isLink);
+    }
+
+    return result;
   }
   
   public File(java.net.URI uri) { throw new UnsupportedOperationException(); }
   
   public String getName() {
-    int idx = canonicalPath.lastIndexOf(separatorChar);
+    int idx = filename.lastIndexOf(separatorChar);
     if (idx >= 0){
-      return canonicalPath.substring(idx+1);
+      return filename.substring(idx+1);
     } else {
-      return canonicalPath;
+      return filename;
     }
   }
 
@@ -158,8 +221,8 @@ public class File
   }
 
   public boolean canRead() {
-    
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       return fileInfo.getFileState().isReadableForSUT();
     }
     
@@ -167,7 +230,8 @@ public class File
   }
 
   public boolean setReadable(boolean readable, boolean ownerOnly) {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       fileInfo.getFileState().setReadableForSUT(readable);
 
       return true;
@@ -181,7 +245,8 @@ public class File
   }
 
   public boolean canWrite() {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       return fileInfo.getFileState().isWritableForSUT();
     }
 
@@ -189,7 +254,8 @@ public class File
   }
 
   public boolean setWritable(boolean writable, boolean ownerOnly) {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       fileInfo.getFileState().setWritableForSUT(writable);
 
       return true;
@@ -203,7 +269,8 @@ public class File
   }
 
   public boolean canExecute() {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       return fileInfo.getFileState().isExecutableForSUT();
     }
 
@@ -211,7 +278,8 @@ public class File
   }
   
   public boolean setExecutable(boolean executable, boolean ownerOnly) {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       fileInfo.getFileState().setExecutableForSUT(executable);
 
       return true;
@@ -225,7 +293,8 @@ public class File
   }
 
   public boolean setReadonly() {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       FileState fs = fileInfo.getFileState();      
       fs.setReadableForSUT(true);
       fs.setWritableForSUT(false);
@@ -241,6 +310,7 @@ public class File
   }
   
   public boolean exists() {
+    FileInfo fileInfo = findFileInfo();
     if (fileInfo != null) {
       return fileInfo.exists();
     }
@@ -249,7 +319,8 @@ public class File
   }
 
   public boolean isDirectory() {    
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       return fileInfo.getFileState().isDir();
     }
     
@@ -257,6 +328,7 @@ public class File
   }
 
   public boolean isFile() {
+    FileInfo fileInfo = findFileInfo();
     if (fileInfo != null && fileInfo.exists()) {
       return !fileInfo.getFileState().isDir();
     }
@@ -267,32 +339,35 @@ public class File
   public native boolean isHidden();
   
   public long length() {
-    return fileInfo.getFileState().getLength();
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null) {
+      return fileInfo.getFileState().getLength();
+    }
+
+    return 0;
   }
 
   public boolean createNewFile() throws IOException {    
-    return fileInfo.createNewFile(canonicalPath);
+    return getFileInfo().createNewFile();
   }
 
   public boolean delete() {
-    return fileInfo.delete();
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null) {
+      return fileInfo.delete();
+    }
+
+    return false;
   }
 
   public void deleteOnExit() {}
   
   public String[] list()  {
-    String[] childsCP = fileInfo.list();
-
-    if (childsCP != null) {
-      String[] childsNames = new String[childsCP.length];
-
-      for (int i = 0; i < childsCP.length; i++) {
-        childsNames[i] = childsCP[i].substring(canonicalPath.length() + 1);
-      }
-
-      return childsNames;
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null) {
+      return fileInfo.listNames();
     }
-    
+
     return null;
   }
 
@@ -325,33 +400,17 @@ public class File
   public File[] listFiles()  {    
     String[] childs = list();
     if (childs != null) {
-      File[] result = new File[childs.length];
-
-      for (int i = 0; i < childs.length; i++) {
-        result[i] = new File(canonicalPath, childs[i]);
-      }
-
-      return result;
+      return getChildren(childs);
     }
 
     return null;
   }
   
   public File[] listFiles(FilenameFilter filter) {
-    if (fileInfo != null) {
-      String[] childs = list(filter);
-
-      if (childs != null) {
-        File[] result = new File[childs.length];
-
-        for (int i = 0; i < childs.length; i++) {
-          result[i] = new File(canonicalPath, childs[i]);
-        }
-
-        return result;
-      }
+    String[] childs = list(filter);
 
-      return null;
+    if (childs != null) {
+      return getChildren(childs);
     }
 
     return null;
@@ -384,20 +443,26 @@ public class File
   }
 
   public boolean mkdir() {
-    return fileInfo.mkdir();
+    return getFileInfo().mkdir();
   }
   
   public boolean mkdirs() {
-    return fileInfo.mkdirs(true);
+    return getFileInfo().mkdirs(true);
   }
 
 
   public boolean renameTo(File f)  {
-    return fileInfo.renameTo(f.canonicalPath);
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null) {
+      return fileInfo.renameTo(f.getBFSPath());
+    }
+
+    return false;
   }
 
   public long lastModified() {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       return fileInfo.getFileState().getLastModified();
     }
 
@@ -405,7 +470,8 @@ public class File
   }
   
   public boolean setLastModified(long time)  {
-    if (fileInfo.exists()) {
+    FileInfo fileInfo = findFileInfo();
+    if (fileInfo != null && fileInfo.exists()) {
       fileInfo.getFileState().setLastModified(time);
 
       return true;
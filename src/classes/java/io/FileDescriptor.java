@@ -66,11 +66,16 @@ public class FileDescriptor {
   
   int read () throws IOException {
     if (isOpened) {
-      if (fileState.isReadableForSUT()) {
-        fileState.markRead();
-        return fileInterface.read();
-      } else {
-        throw new IOException("No rights to read file");
+      fileState.markRead();
+      fileState.beginOperation();
+      try {
+        if (fileState.isReadableForSUT()) {
+          return fileInterface.read();
+        } else {
+          throw new IOException("No rights to read file");
+        }
+      } finally {
+        fileState.endOperation();
       }
     } else {
       throw new IOException("Attempt to read with closed descriptor");
@@ -79,11 +84,16 @@ public class FileDescriptor {
 
   int read (byte[] buf, int off, int len) throws IOException {
     if (isOpened) {
-      if (fileState.isReadableForSUT()) {
-        fileState.markRead();
-        return fileInterface.read(buf, off, len);
-      } else {
-        throw new IOException("No rights to read file");
+      fileState.markRead();
+      fileState.beginOperation();
+      try {
+        if (fileState.isReadableForSUT()) {
+          return fileInterface.read(buf, off, len);
+        } else {
+          throw new IOException("No rights to read file");
+        }
+      } finally {
+        fileState.endOperation();
       }
     } else {
       throw new IOException("Attempt to read with closed descriptor");
@@ -108,13 +118,18 @@ public class FileDescriptor {
   
   void write (int b) throws IOException {
     if (isOpened) {
-      if (fileState.isWritableForSUT()) {
-        fileState.markWrite();
-        fileInterface.write(b);
-        
-        fileState.updateLastModified();
-      } else {
-        throw new IOException("No rights to write to file");
+      fileState.markWrite();
+      fileState.beginOperation();
+      try {
+        if (fileState.isWritableForSUT()) {
+          fileInterface.write(b);
+
+          fileState.updateLastModified();
+        } else {
+          throw new IOException("No rights to write to file");
+        }
+      } finally {
+        fileState.endOperation();
       }
     } else {     
       throw new IOException("Attempt to write with closed descriptor");
@@ -123,13 +138,18 @@ public class FileDescriptor {
 
   void write (byte[] buf, int off, int len) throws IOException {
     if (isOpened) {
-      if (fileState.isWritableForSUT()) {
-        fileState.markWrite();
-        fileInterface.write(buf, off, len);
-        
-        fileState.updateLastModified();
-      } else {
-        throw new IOException("No rights to write to file");
+      fileState.markWrite();
+      fileState.beginOperation();
+      try {
+        if (fileState.isWritableForSUT()) {
+          fileInterface.write(buf, off, len);
+
+          fileState.updateLastModified();
+        } else {
+          throw new IOException("No rights to write to file");
+        }
+      } finally {
+        fileState.endOperation();
       }
     } else {
       throw new IOException("Attempt to read with closed descriptor");
@@ -139,9 +159,14 @@ public class FileDescriptor {
   void setLength(long newLength) throws IOException {
     if (isOpened) {
       fileState.markWrite();
-      fileInterface.setLength(newLength);
-      
-      fileState.updateLastModified();
+      fileState.beginOperation();
+      try {
+        fileInterface.setLength(newLength);
+
+        fileState.updateLastModified();
+      } finally {
+        fileState.endOperation();
+      }
     } else {
       throw new IOException("Attempt to set file length with closed descriptor");
     }
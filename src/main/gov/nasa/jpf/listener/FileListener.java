@@ -123,7 +123,13 @@ public class FileListener extends ListenerAdapter {
           }
           
           if (ei != null) {
-            return ei.getStringField("canonicalPath");
+            String canonicalPath = ei.getStringField("canonicalPath");
+            // File's canonical path is resolved lazily, so it can be not set yet
+            if (canonicalPath == null && className.equals("java.io.File")) {
+              return ei.getStringField("filename");
+            }
+
+            return canonicalPath;
           }
           
         }
@@ -0,0 +1,122 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Host side cache of canonical paths. Getting canonical path of a file requires
+ * a system call for every component of a path, and it's done every time a
+ * java.io.File is created in SUT.
+ * Cache is keyed by working directory and path that was passed by SUT.
+ * 
+ * @author Ivan Mushketik
+ */
+@JPFOptions({
+  @JPFOption(type = "int", key = "jpf-bfs.canonical_cache_size", defaultValue = "4096",
+        comment = "maximum number of canonical paths that are cached on the host side. "
+        + "0 - turn canonical paths caching off")
+})
+public class CanonicalPathCache {
+
+  private static final String CACHE_SIZE_KEY = "jpf-bfs.canonical_cache_size";
+  private static final int DEFAULT_CACHE_SIZE = 4096;
+
+  private static int cacheSize = DEFAULT_CACHE_SIZE;
+  private static Map<String, String> cache = createCache();
+
+  // This method is used by java.io.File peer
+  public static void init(Config config) {
+    cacheSize = config.getInt(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE);
+    cache = createCache();
+  }
+
+  // LRU map that removes oldest entries if there are more then cacheSize of them
+  private static Map<String, String> createCache() {
+    return new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Get canonical path of a specified path.
+   * @param path - path that was specified by SUT
+   * @return canonical path
+   * @throws IOException if canonical path can't be get
+   */
+  public static String getCanonicalPath(String path) throws IOException {
+    File file = new File(path);
+
+    if (cacheSize <= 0) {
+      return file.getCanonicalPath();
+    }
+
+    // Relative paths are resolved against a working directory
+    String key = file.isAbsolute() ? path : System.getProperty("user.dir") + '\0' + path;
+
+    String canonicalPath = cache.get(key);
+    if (canonicalPath == null) {
+      canonicalPath = file.getCanonicalPath();
+
+      // Canonical path of a path that was resolved through a symbolic link
+      // depends on a link's target that can be changed, so only paths without 
+      // links are cached
+      if (canonicalPath.equals(normalize(file.getAbsolutePath()))) {
+        cache.put(key, canonicalPath);
+      }
+    }
+
+    return canonicalPath;
+  }
+
+  /**
+   * Remove "." and ".." from an absolute path without accessing a native FS.
+   */
+  static String normalize(String absolutePath) {
+    String[] names = JPF_gov_nasa_jpf_FileInfo.splitPath(absolutePath);
+    String[] stack = new String[names.length];
+    int top = 0;
+
+    for (int i = 1; i < names.length; i++) {
+      if (names[i].equals("..")) {
+        if (top > 0) {
+          top--;
+        }
+      } else if (!names[i].equals(".")) {
+        stack[top++] = names[i];
+      }
+    }
+
+    String result = names[0];
+    for (int i = 0; i < top; i++) {
+      result = JPF_gov_nasa_jpf_FileInfo.childPath(result, stack[i]);
+    }
+
+    return result;
+  }
+}
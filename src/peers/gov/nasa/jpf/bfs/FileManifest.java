@@ -0,0 +1,326 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Virtual files that are described in a manifest. Files from a manifest are
+ * never created on a native FS: FileInfo peer reads their metadata and
+ * directory listings from a manifest, and their base content is kept in
+ * memory. Files from a manifest hide native files with the same paths.
+ * Manifest is a text file with a line per file:
+ * <pre>
+ * # type permissions path [content]
+ * d 755 /fixtures
+ * f 644 /fixtures/greeting text:Hello\n
+ * f 444 /fixtures/data.bin file:data/data.bin
+ * </pre>
+ * Type is 'd' for a directory and 'f' for a file, permissions are octal
+ * POSIX permissions. Content of a file is either a text after "text:" with
+ * \n, \r, \t and \\ escapes, or a content of a file after "file:". Relative
+ * paths of files and of content files are both resolved against a directory
+ * of a manifest, not against a working directory. Parent directories that
+ * aren't listed are created implicitly if they don't exist on a native FS.
+ *
+ * @author Ivan Mushketik
+ */
+@JPFOptions({
+  @JPFOption(type = "String", key = "jpf-bfs.manifest", defaultValue = "",
+        comment = "manifest of virtual files, that are visible to SUT but never created on a native FS")
+})
+class FileManifest {
+
+  private static final String MANIFEST_KEY = "jpf-bfs.manifest";
+
+  private static final String TEXT_CONTENT = "text:";
+  private static final String FILE_CONTENT = "file:";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // Manifest files have fixed modification time, so runs are deterministic
+  private static final long LAST_MODIFIED = 0;
+  private static final int IMPLICIT_DIR_PERMISSIONS = 0755;
+
+  private static class Entry {
+    final boolean isDir;
+    // Entry for a parent directory that isn't listed in a manifest
+    final boolean isImplicit;
+    final int permissions;
+    final TreeSet<String> children = new TreeSet<String>();
+
+    byte[] content;
+    // File with content that is read when content is needed for the first time
+    File contentFile;
+    long length;
+
+    Entry(boolean isDir, boolean isImplicit, int permissions) {
+      this.isDir = isDir;
+      this.isImplicit = isImplicit;
+      this.permissions = permissions;
+    }
+  }
+
+  // Canonical path -> entry
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * Load manifest if it's configured.
+   * @return manifest or null if no manifest was set
+   */
+  static FileManifest create(Config config) {
+    String manifestName = config.getString(MANIFEST_KEY);
+    if (manifestName == null || manifestName.length() == 0) {
+      return null;
+    }
+
+    try {
+      FileManifest manifest = new FileManifest();
+      manifest.load(new File(manifestName));
+
+      return manifest;
+    } catch (IOException ex) {
+      throw new JPFConfigException("Unable to read manifest " + manifestName + ": " + ex.getMessage());
+    }
+  }
+
+  private void load(File manifestFile) throws IOException {
+    File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+    BufferedReader reader = new BufferedReader(new FileReader(manifestFile));
+
+    try {
+      String line;
+      int lineNumber = 0;
+
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.replaceFirst("^\\s+", "");
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+
+        String[] fields = line.split("\\s+", 4);
+        if (fields.length < 3 || !(fields[0].equals("d") || fields[0].equals("f"))) {
+          throw new JPFConfigException("Invalid manifest line " + lineNumber + ": " + line);
+        }
+
+        boolean isDir = fields[0].equals("d");
+        int permissions;
+        try {
+          permissions = Integer.parseInt(fields[1], 8);
+        } catch (NumberFormatException ex) {
+          throw new JPFConfigException("Invalid permissions in manifest line " + lineNumber + ": " + fields[1]);
+        }
+
+        String path = resolve(fields[2], baseDir).getCanonicalPath();
+        Entry entry = new Entry(isDir, false, permissions);
+        if (!isDir && fields.length == 4) {
+          setContent(entry, fields[3], baseDir, lineNumber);
+        }
+
+        add(path, entry);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void setContent(Entry entry, String content, File baseDir, int lineNumber) {
+    if (content.startsWith(TEXT_CONTENT)) {
+      entry.content = unescape(content.substring(TEXT_CONTENT.length())).getBytes(UTF8);
+      entry.length = entry.content.length;
+
+    } else if (content.startsWith(FILE_CONTENT)) {
+      File contentFile = resolve(content.substring(FILE_CONTENT.length()).trim(), baseDir);
+      if (!contentFile.isFile()) {
+        throw new JPFConfigException("No content file in manifest line " + lineNumber + ": " + contentFile);
+      }
+
+      entry.contentFile = contentFile;
+      entry.length = contentFile.length();
+
+    } else {
+      throw new JPFConfigException("Invalid content in manifest line " + lineNumber + ": " + content);
+    }
+  }
+
+  // Relative paths in a manifest are relative to a directory of a manifest
+  private static File resolve(String path, File baseDir) {
+    File file = new File(path);
+
+    return file.isAbsolute() ? file : new File(baseDir, path);
+  }
+
+  private static String unescape(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+
+      if (c == '\\' && i + 1 < text.length()) {
+        char next = text.charAt(++i);
+        switch (next) {
+          case 'n': sb.append('\n'); break;
+          case 'r': sb.append('\r'); break;
+          case 't': sb.append('\t'); break;
+          default: sb.append(next);
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+
+    return sb.toString();
+  }
+
+  // Add an entry and implicit entries for all its parents that aren't listed
+  private void add(String path, Entry entry) {
+    Entry old = entries.get(path);
+    if (old != null && !old.isImplicit) {
+      throw new JPFConfigException("File " + path + " is listed in a manifest twice");
+    }
+    if (old != null) {
+      entry.children.addAll(old.children);
+    }
+    entries.put(path, entry);
+
+    File parentFile = new File(path).getParentFile();
+    String name = new File(path).getName();
+
+    while (parentFile != null) {
+      String parentPath = parentFile.getPath();
+      Entry parent = entries.get(parentPath);
+      boolean isKnown = (parent != null);
+
+      if (!isKnown) {
+        parent = new Entry(true, true, IMPLICIT_DIR_PERMISSIONS);
+        entries.put(parentPath, parent);
+      }
+      parent.children.add(name);
+
+      if (isKnown) {
+        break;
+      }
+      name = parentFile.getName();
+      parentFile = parentFile.getParentFile();
+    }
+  }
+
+  /**
+   * Check if a file is listed in a manifest or is a parent of a listed file
+   */
+  boolean covers(String path) {
+    return entries.containsKey(path);
+  }
+
+  /**
+   * Check if a manifest lists a regular file with a specified path
+   */
+  boolean containsFile(String path) {
+    Entry entry = entries.get(path);
+
+    return entry != null && !entry.isDir;
+  }
+
+  /**
+   * Get attributes of a file from a manifest. Implicit directories that exist
+   * on a native FS keep their native attributes.
+   * @return attributes or null if file isn't in a manifest
+   */
+  NativeFileAttributes getAttributes(String path) {
+    Entry entry = entries.get(path);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.isImplicit) {
+      NativeFileAttributes nativeAttrs = NativeFileAttributes.read(path);
+      if (nativeAttrs != null) {
+        return nativeAttrs;
+      }
+    }
+
+    int mode = NativeFileAttributes.OWNED_BY_USER | entry.permissions;
+    if (entry.isDir) {
+      mode |= NativeFileAttributes.DIRECTORY;
+    }
+
+    return new NativeFileAttributes(mode, entry.length, LAST_MODIFIED);
+  }
+
+  /**
+   * @return sorted names of children of a directory from a manifest, or null
+   * if directory isn't in a manifest
+   */
+  String[] list(String path) {
+    Entry entry = entries.get(path);
+
+    if (entry != null && entry.isDir) {
+      return entry.children.toArray(new String[entry.children.size()]);
+    }
+
+    return null;
+  }
+
+  /**
+   * Get content of a file from a manifest.
+   * @return content or null if file isn't a file from a manifest
+   */
+  byte[] getContent(String path) throws IOException {
+    Entry entry = entries.get(path);
+    if (entry == null || entry.isDir) {
+      return null;
+    }
+
+    if (entry.content == null) {
+      entry.content = (entry.contentFile != null) ? readFile(entry.contentFile) : new byte[0];
+    }
+
+    return entry.content;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+
+    return out.toByteArray();
+  }
+}
@@ -19,11 +19,11 @@
 package gov.nasa.jpf.bfs;
 
 import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFConfigException;
 import gov.nasa.jpf.annotation.JPFOption;
 import gov.nasa.jpf.annotation.JPFOptions;
 import gov.nasa.jpf.jvm.JVM;
 import gov.nasa.jpf.jvm.MJIEnv;
-import gov.nasa.jpf.util.StringSetMatcher;
 
 /**
  *
@@ -37,43 +37,100 @@ import gov.nasa.jpf.util.StringSetMatcher;
   
   @JPFOption(type = "StringArray", key = "jpf-bfs.bfs.ignore_write", defaultValue = "", comment="if file's canonical path matches "
         + "any of specified here regular expressions, all write operations will be ignored. Result "
-        + "of read operations is specified by @jpfoption jpf-bfs.opened_delete")
+        + "of read operations is specified by @jpfoption jpf-bfs.opened_delete"),
+
+  @JPFOption(type = "StringArray", key = "jpf-bfs.bfs.journal", defaultValue = "", comment="if file's canonical path matches "
+        + "any of specified here regular expressions, all read/write operations with this file "
+        + "will be performed natively on a private copy, and changes will be rolled back on backtracking."),
+
+  @JPFOption(type = "StringArray", key = "jpf-bfs.bfs.sink", defaultValue = "", comment="if file's canonical path matches "
+        + "any of specified here regular expressions, written data is discarded and only file length and "
+        + "modification time are changed. Such file can't be read. Use it for logs and traces."),
+
+  @JPFOption(type = "StringArray", key = "jpf-bfs.backends", defaultValue = "", comment="names of custom file backends. "
+        + "For every backend 'jpf-bfs.backend.<name>.factory' sets a name of a gov.nasa.jpf.FileInterfaceFactory "
+        + "subclass and 'jpf-bfs.backend.<name>.files' sets regular expressions of files that use this backend. "
+        + "Custom backends have priority over other file access options."),
+
+  @JPFOption(type = "StringArray", key = "jpf-bfs.abstract_content", defaultValue = "", comment="if file's canonical path matches "
+        + "any of specified here regular expressions, content and length of this file are not used in "
+        + "state matching. Read operations still return real data.")
 })
 public class JPF_gov_nasa_jpf_FileAccessInfo {
 
   public static final int BFS_INCLUDE = 1;
   public static final int BFS_EXCLUDE = 2;
   public static final int BFS_IGNORE_WRITE = 3;
+  public static final int BFS_JOURNAL = 4;
+  public static final int BFS_SINK = 5;
+  // Custom backends get modes that follow built-in modes
+  public static final int FIRST_CUSTOM_BACKEND = 6;
 
   public static final String BFS_EXCLUDE_KEY = "jpf-bfs.bfs.exclude";
   public static final String BFS_IGNORE_WRITE_KEY = "jpf-bfs.bfs.ignore_write";
+  public static final String BFS_JOURNAL_KEY = "jpf-bfs.bfs.journal";
+  public static final String BFS_SINK_KEY = "jpf-bfs.bfs.sink";
+  public static final String BACKENDS_KEY = "jpf-bfs.backends";
+  public static final String BACKEND_KEY_PREFIX = "jpf-bfs.backend.";
+  public static final String ABSTRACT_CONTENT_KEY = "jpf-bfs.abstract_content";
 
-  private static StringSetMatcher bfsExcludeMatcher;
-  private static StringSetMatcher bfsIgnoreWriteMatcher;
+  private static final int ABSTRACTED = 1;
+  private static final int NOT_ABSTRACTED = 0;
+
+  // Decisions for canonical paths, compiled from patterns in a config
+  private static PathPolicy accessModePolicy;
+  private static PathPolicy abstractContentPolicy;
+  // Factory class names of custom backends indexed by access mode
+  private static String[] backendFactories;
 
   public static void init (Config config) {
-    String[] bfsExclude = config.getStringArray(BFS_EXCLUDE_KEY);
-    String[] bfsIgnoreWrite = config.getStringArray(BFS_IGNORE_WRITE_KEY);
+    // Rules are added in order of their priority
+    accessModePolicy = new PathPolicy(BFS_INCLUDE);
+    addBackends(config);
+    accessModePolicy.addRules(config.getStringArray(BFS_EXCLUDE_KEY), BFS_EXCLUDE);
+    accessModePolicy.addRules(config.getStringArray(BFS_IGNORE_WRITE_KEY), BFS_IGNORE_WRITE);
+    accessModePolicy.addRules(config.getStringArray(BFS_JOURNAL_KEY), BFS_JOURNAL);
+    accessModePolicy.addRules(config.getStringArray(BFS_SINK_KEY), BFS_SINK);
 
-    if (bfsExclude != null) {
-      bfsExcludeMatcher = new StringSetMatcher(bfsExclude);
-    }
+    abstractContentPolicy = new PathPolicy(NOT_ABSTRACTED);
+    abstractContentPolicy.addRules(config.getStringArray(ABSTRACT_CONTENT_KEY), ABSTRACTED);
+  }
+
+  private static void addBackends(Config config) {
+    String[] backends = config.getStringArray(BACKENDS_KEY);
+    int numberOfBackends = (backends != null) ? backends.length : 0;
+    backendFactories = new String[FIRST_CUSTOM_BACKEND + numberOfBackends];
 
-    if (bfsIgnoreWrite != null) {
-      bfsIgnoreWriteMatcher = new StringSetMatcher(bfsIgnoreWrite);
+    for (int i = 0; i < numberOfBackends; i++) {
+      String prefix = BACKEND_KEY_PREFIX + backends[i];
+      String factory = config.getString(prefix + ".factory");
+
+      if (factory == null) {
+        throw new JPFConfigException("No factory is set for file backend " + backends[i]);
+      }
+
+      backendFactories[FIRST_CUSTOM_BACKEND + i] = factory;
+      accessModePolicy.addRules(config.getStringArray(prefix + ".files"), FIRST_CUSTOM_BACKEND + i);
     }
   }
 
+  public static int getBackendFactories_____3Ljava_lang_String_2(MJIEnv env, int classRef) {
+    return env.newStringArray(backendFactories);
+  }
+
   public static int getFileAccessMode__Ljava_lang_String_2__I(MJIEnv env, int classRef, int canonicalPathRef) {
     String canonicalPath = env.getStringObject(canonicalPathRef);
 
-    if (bfsExcludeMatcher != null && bfsExcludeMatcher.matchesAny(canonicalPath)) {
-      return BFS_EXCLUDE;
-    } else if (bfsIgnoreWriteMatcher != null && bfsIgnoreWriteMatcher.matchesAny(canonicalPath)) {
-      return BFS_IGNORE_WRITE;
-    } else {
-      return BFS_INCLUDE;
-    }
+    return getFileAccessMode(canonicalPath);
+  }
+
+  // This method is used by FileInfo peer, that creates new FileInfo objects
+  static int getFileAccessMode(String canonicalPath) {
+    return accessModePolicy.getDecision(canonicalPath);
+  }
 
+  // Check if content of a file shouldn't be used in state matching
+  static boolean isContentAbstracted(String canonicalPath) {
+    return abstractContentPolicy.getDecision(canonicalPath) == ABSTRACTED;
   }
 }
@@ -23,13 +23,15 @@ import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPF;
 import gov.nasa.jpf.annotation.JPFOption;
 import gov.nasa.jpf.annotation.JPFOptions;
-import gov.nasa.jpf.jvm.Fields;
 import gov.nasa.jpf.jvm.MJIEnv;
-import gov.nasa.jpf.jvm.ReferenceArrayFields;
 import gov.nasa.jpf.util.JPFLogger;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.TreeSet;
 
 /**
  *
@@ -41,7 +43,9 @@ import java.util.HashSet;
      + "'warning' - log warning; 'nothing' - just do nothing "),
   @JPFOption(type = "String", key = "jpf-bfs.opened_rename", defaultValue = "nothing", 
      comment="what to do if opened file is renamed. 'error' - throw java.io.IOException;"
-     + " 'warning' - log warning; 'nothing' - just do nothing ")        
+     + " 'warning' - log warning; 'nothing' - just do nothing "),
+  @JPFOption(type = "int", key = "jpf-bfs.list_page_size", defaultValue = "256",
+     comment="number of directory entries that are read at once by gov.nasa.jpf.DirectoryIterator and java.io.File.list()")
 })
 public class JPF_gov_nasa_jpf_FileInfo {
 
@@ -49,120 +53,491 @@ public class JPF_gov_nasa_jpf_FileInfo {
 
   private static final String OPENED_DELETE_KEY = "jpf-bfs.opened_delete";
   private static final String OPENED_RENAME_KEY = "jpf-bfs.opened_rename";
+  private static final String LIST_PAGE_SIZE_KEY = "jpf-bfs.list_page_size";
+
+  private static final int DEFAULT_PAGE_SIZE = 256;
+
+  private static final String FILE_INFO_CLASS = "gov.nasa.jpf.FileInfo";
+  private static final String FILE_STATE_CLASS = "gov.nasa.jpf.FileState";
 
   private static FSMode onOpenedDelete = FSMode.NOTHING;
   private static FSMode onOpenedRename = FSMode.NOTHING;
 
   private static File cacheDir;
+  // Number of names that DirectoryIterator reads at once
+  private static int pageSize = DEFAULT_PAGE_SIZE;
+
+  // Pre-scanned image of a native FS or null if it wasn't configured
+  private static NativeFSImage fsImage;
+  // Overlay mounts or null if none are configured
+  static OverlayMounts overlays;
+  // Virtual files from a manifest or null if it wasn't configured
+  private static FileManifest manifest;
 
   public static void init(Config config) {
+    pageSize = config.getInt(LIST_PAGE_SIZE_KEY, DEFAULT_PAGE_SIZE);
+
     onOpenedDelete = config.getEnum(OPENED_DELETE_KEY, FSMode.values(), FSMode.NOTHING);    
     onOpenedRename = config.getEnum(OPENED_RENAME_KEY, FSMode.values(), FSMode.NOTHING);
 
     cacheDir = BFSUtils.getCacheDir(config);
+    // FileAccessInfo model class isn't used by SUT, so its peer isn't initialized by JPF
+    JPF_gov_nasa_jpf_FileAccessInfo.init(config);
+    fsImage = NativeFSImage.create(config, cacheDir);
+    overlays = OverlayMounts.create(config);
+    manifest = FileManifest.create(config);
+    nativeChildren.clear();
+    nativeLinks.clear();
+    missingNativePaths.clear();
   }
   
   private static final int INITIAL_SIZE = 1;
 
-  public static int createNewFileInfo__Ljava_lang_String_2__Lgov_nasa_jpf_FileInfo_2(MJIEnv env, int clsRef, int fileNameRef) {
-    
-    String fileName = env.getStringObject(fileNameRef);    
-    logger.info("Searching for info for ", fileName, " on native FS");
-    
-    File file = new File(fileName);
-
-    if (file.exists()) {
-      logger.info("Found file on a native file system");
-      int fiRef = env.newObject("gov.nasa.jpf.FileInfo");
-      int cpRef = env.newString(fileName);
-      env.setReferenceField(fiRef, "canonicalPath", cpRef);
-      
-      int fsRef = createFileState(env, file, cpRef);
-      env.setReferenceField(fiRef, "fileState", fsRef);
-      
-      boolean isDir = file.isDirectory();
-      if (isDir) {
-        int fis = env.newObjectArray("gov.nasa.jpf.FileInfo", INITIAL_SIZE);
-        env.setReferenceField(fiRef, "children", fis);
+  // Sorted names of children of directories on a native FS. Native FS isn't 
+  // changed during SUT run, so each directory is read only once
+  private static final HashMap<String, String[]> nativeChildren = new HashMap<String, String[]>();
+  // Sorted names of children of native directories that are symbolic links
+  private static final HashMap<String, String[]> nativeLinks = new HashMap<String, String[]>();
+  // Paths that don't exist on a native FS. Since native FS isn't changed during
+  // SUT run, failed lookups are never repeated
+  private static final HashSet<String> missingNativePaths = new HashSet<String>();
+
+  public static int getFileInfo__Ljava_lang_String_2__Lgov_nasa_jpf_FileInfo_2(MJIEnv env, int clsRef, int canonicalPathRef) {
+    String canonicalPath = env.getStringObject(canonicalPathRef);
+
+    return getFileInfo(env, clsRef, canonicalPath);
+  }
+
+  /**
+   * Walk from a file system root to a file with a specified canonical path. All
+   * FileInfos on the way that weren't used by SUT before are created.
+   */
+  static int getFileInfo(MJIEnv env, int clsRef, String canonicalPath) {
+    String[] names = splitPath(canonicalPath);
+
+    String path = names[0];
+    int fiRef = getRoot(env, clsRef, path);
+
+    for (int i = 1; i < names.length; i++) {
+      path = childPath(path, names[i]);
+      fiRef = getChild(env, fiRef, names[i], path);
+    }
+
+    return fiRef;
+  }
+
+  public static int findFileInfo__Ljava_lang_String_2__Lgov_nasa_jpf_FileInfo_2(MJIEnv env, int clsRef, int canonicalPathRef) {
+    String canonicalPath = env.getStringObject(canonicalPathRef);
+
+    return findFileInfo(env, clsRef, canonicalPath);
+  }
+
+  /**
+   * Find FileInfo of a file with a specified canonical path. Unlike getFileInfo
+   * no FileInfos are created for a file that wasn't used by SUT and doesn't exist
+   * on a native FS, so lookups of missing files don't change JPF state.
+   * @return FileInfo or NULL if file wasn't used by SUT and doesn't exist on a native FS
+   */
+  static int findFileInfo(MJIEnv env, int clsRef, String canonicalPath) {
+    String[] names = splitPath(canonicalPath);
+
+    int rootsRef = env.getStaticReferenceField(clsRef, "roots");
+    int numberOfRoots = env.getStaticIntField(clsRef, "numberOfRoots");
+    int pos = findByName(env, rootsRef, numberOfRoots, names[0]);
+
+    String nativePath;
+    if (pos >= 0) {
+      // Find the last FileInfo on the way that was already used by SUT
+      int fiRef = env.getReferenceArrayElement(rootsRef, pos);
+      int i = 1;
+      for (; i < names.length; i++) {
+        int childrenRef = env.getReferenceField(fiRef, "children");
+        int numberOfChildren = env.getIntField(fiRef, "numberOfChildren");
+
+        pos = findByName(env, childrenRef, numberOfChildren, names[i]);
+        if (pos < 0) {
+          break;
+        }
+        fiRef = env.getReferenceArrayElement(childrenRef, pos);
+      }
+
+      if (i == names.length) {
+        return fiRef;
+      }
+
+      // Rest of a path can exist only on a native FS
+      int fsRef = env.getReferenceField(fiRef, "fileState");
+      if (!fileExists(env, fsRef) || !nativeFileExists(env, fsRef)) {
+        return MJIEnv.NULL;
+      }
+
+      nativePath = env.getStringField(fsRef, "nativeFSFileName");
+      for (; i < names.length; i++) {
+        nativePath = childPath(nativePath, names[i]);
       }
+    } else {
+      nativePath = canonicalPath;
+    }
 
-      return fiRef;
+    if (readAttributes(resolveOverlay(canonicalPath, nativePath)) == null) {
+      return MJIEnv.NULL;
     }
-    return MJIEnv.NULL;
+
+    return getFileInfo(env, clsRef, canonicalPath);
+  }
+
+  /**
+   * Split canonical path into a file system root and names of all files on the
+   * way from the root. E.g. "/home/user" is split into {"/", "home", "user"}
+   */
+  static String[] splitPath(String canonicalPath) {
+    ArrayList<String> names = new ArrayList<String>();
+
+    int rootEnd = canonicalPath.indexOf(File.separatorChar) + 1;
+    names.add(canonicalPath.substring(0, rootEnd));
+
+    int start = rootEnd;
+    while (start < canonicalPath.length()) {
+      int end = canonicalPath.indexOf(File.separatorChar, start);
+      if (end < 0) {
+        end = canonicalPath.length();
+      }
+
+      if (end > start) {
+        names.add(canonicalPath.substring(start, end));
+      }
+      start = end + 1;
+    }
+
+    return names.toArray(new String[names.size()]);
+  }
+
+  /**
+   * Get canonical path of a child file with specified name
+   */
+  static String childPath(String parentPath, String name) {
+    // Only file system roots ends with a separator
+    if (parentPath.charAt(parentPath.length() - 1) == File.separatorChar) {
+      return parentPath + name;
+    }
+
+    return parentPath + File.separatorChar + name;
+  }
+
+  /**
+   * Build canonical path of a file from names of FileInfos on a way from the file
+   * system root
+   */
+  static String getCanonicalPath(MJIEnv env, int fiRef) {
+    String name = env.getStringField(fiRef, "name");
+    int parentRef = env.getReferenceField(fiRef, "parent");
+
+    if (parentRef == MJIEnv.NULL) {
+      return name;
+    }
+
+    return childPath(getCanonicalPath(env, parentRef), name);
+  }
+
+  public static int getCanonicalPath____Ljava_lang_String_2(MJIEnv env, int objRef) {
+    return env.newString(getCanonicalPath(env, objRef));
+  }
+
+  private static int getRoot(MJIEnv env, int clsRef, String rootPath) {
+    int rootsRef = env.getStaticReferenceField(clsRef, "roots");
+    int numberOfRoots = env.getStaticIntField(clsRef, "numberOfRoots");
+
+    int pos = findByName(env, rootsRef, numberOfRoots, rootPath);
+    if (pos >= 0) {
+      return env.getReferenceArrayElement(rootsRef, pos);
+    }
+
+    int rootRef = createFileInfo(env, MJIEnv.NULL, rootPath, rootPath);
+    int newRootsRef = insert(env, rootsRef, numberOfRoots, -(pos + 1), rootRef);
+
+    env.setStaticReferenceField(clsRef, "roots", newRootsRef);
+    env.setStaticIntField(clsRef, "numberOfRoots", numberOfRoots + 1);
+
+    return rootRef;
+  }
+
+  private static int getChild(MJIEnv env, int parentRef, String name, String canonicalPath) {
+    int childrenRef = env.getReferenceField(parentRef, "children");
+    int numberOfChildren = env.getIntField(parentRef, "numberOfChildren");
+
+    int pos = findByName(env, childrenRef, numberOfChildren, name);
+    if (pos >= 0) {
+      return env.getReferenceArrayElement(childrenRef, pos);
+    }
+
+    int childRef = createFileInfo(env, parentRef, name, canonicalPath);
+    int newChildrenRef = insert(env, childrenRef, numberOfChildren, -(pos + 1), childRef);
+
+    env.setReferenceField(parentRef, "children", newChildrenRef);
+    env.setIntField(parentRef, "numberOfChildren", numberOfChildren + 1);
+
+    return childRef;
+  }
+
+  /**
+   * Find FileInfo with a specified name in a sorted array. This method return
+   * object pos in the same fasion as Arrrays.binarySearch() does.
+   *
+   * @return if FileInfo found, return it's index in array. otherwise it returns
+   * -pos - 1; where pos - is a place where new element should be inserted.
+   */
+  private static int findByName(MJIEnv env, int arrayRef, int size, String name) {
+    int left = 0;
+    int right = size - 1;
+
+    while (left <= right) {
+      int m = (left + right) >>> 1;
+      int mFileInfo = env.getReferenceArrayElement(arrayRef, m);
+      String mName = env.getStringField(mFileInfo, "name");
+
+      int sign = mName.compareTo(name);
+
+      if (sign > 0) {
+        right = m - 1;
+      } else if (sign < 0) {
+        left = m + 1;
+      } else {
+        return m;
+      }
+    }
+
+    return -left - 1;
+  }
+
+  /**
+   * Insert FileInfo in a specified position of an array. If array is full (or
+   * wasn't created yet) new array is created. Elements are changed through
+   * MJIEnv, so changes of an array are tracked by JPF.
+   * @return reference to an array with inserted FileInfo
+   */
+  private static int insert(MJIEnv env, int arrayRef, int size, int insertPos, int fiRef) {
+    int arrayLength = (arrayRef != MJIEnv.NULL) ? env.getArrayLength(arrayRef) : 0;
+
+    if (size == arrayLength) {
+      int newArrayRef = env.newObjectArray(FILE_INFO_CLASS, Math.max(size * 2, INITIAL_SIZE));
+
+      for (int i = 0; i < insertPos; i++) {
+        env.setReferenceArrayElement(newArrayRef, i, env.getReferenceArrayElement(arrayRef, i));
+      }
+      for (int i = insertPos; i < size; i++) {
+        env.setReferenceArrayElement(newArrayRef, i + 1, env.getReferenceArrayElement(arrayRef, i));
+      }
+
+      env.setReferenceArrayElement(newArrayRef, insertPos, fiRef);
+      return newArrayRef;
+    }
+
+    for (int i = size; i > insertPos; i--) {
+      env.setReferenceArrayElement(arrayRef, i, env.getReferenceArrayElement(arrayRef, i - 1));
+    }
+    env.setReferenceArrayElement(arrayRef, insertPos, fiRef);
+
+    return arrayRef;
+  }
+
+  /**
+   * Create FileInfo for a file with specified name in a parent directory. State
+   * of a file is read from a native FS, if parent directory has content on a native FS.
+   */
+  private static int createFileInfo(MJIEnv env, int parentRef, String name, String canonicalPath) {
+    int fiRef = env.newObject(FILE_INFO_CLASS);
+    env.setReferenceField(fiRef, "name", env.newString(name));
+    env.setReferenceField(fiRef, "parent", parentRef);
+
+    int fsRef = MJIEnv.NULL;
+    String nativePath = getNativePath(env, parentRef, name);
+
+    if (nativePath != null) {
+      nativePath = resolveOverlay(canonicalPath, nativePath);
+      logger.info("Searching for info for ", canonicalPath, " on native FS");
+      NativeFileAttributes attrs = readAttributes(nativePath);
+
+      if (attrs != null) {
+        logger.info("Found file on a native file system");
+        fsRef = createFileState(env, attrs, nativePath);
+      }
+    }
+
+    if (fsRef == MJIEnv.NULL) {
+      fsRef = env.newObject(FILE_STATE_CLASS);
+      env.setIntField(fsRef, "mode", JPF_gov_nasa_jpf_FileState.DIRECTORY);
+    }
+
+    int fileMode = JPF_gov_nasa_jpf_FileAccessInfo.getFileAccessMode(canonicalPath);
+    env.setIntField(fsRef, "fileMode", fileMode);
+    // Content of a sink file isn't stored, so only its length is used in state
+    // matching
+    if (fileMode == JPF_gov_nasa_jpf_FileAccessInfo.BFS_SINK
+            || JPF_gov_nasa_jpf_FileAccessInfo.isContentAbstracted(canonicalPath)) {
+      int mode = env.getIntField(fsRef, "mode");
+      env.setIntField(fsRef, "mode", mode | JPF_gov_nasa_jpf_FileState.CONTENT_ABSTRACTED);
+    }
+    env.setReferenceField(fiRef, "fileState", fsRef);
+
+    return fiRef;
+  }
+
+  /**
+   * Get path on a native FS for a file with a specified name. Native content of
+   * a file is a child of a parent's native content, so if parent directory 
+   * doesn't exist or was created by SUT no native lookup is needed.
+   * @return path on a native FS or null if a file can't exist on a native FS.
+   */
+  private static String getNativePath(MJIEnv env, int parentRef, String name) {
+    if (parentRef == MJIEnv.NULL) {
+      return name;
+    }
+
+    int parentFSRef = env.getReferenceField(parentRef, "fileState");
+    if (fileExists(env, parentFSRef) && nativeFileExists(env, parentFSRef)) {
+      return childPath(env.getStringField(parentFSRef, "nativeFSFileName"), name);
+    }
+
+    return null;
+  }
+
+  /**
+   * Find a layer of an overlay mount that contains a file.
+   * @return path of a file in the first layer where it exists, or a specified
+   * native path if file isn't in an overlay or doesn't exist in any layer
+   */
+  private static String resolveOverlay(String canonicalPath, String nativePath) {
+    if (overlays != null) {
+      String[] layerPaths = overlays.getLayerPaths(canonicalPath);
+
+      if (layerPaths != null) {
+        for (String layerPath : layerPaths) {
+          if (readAttributes(layerPath) != null) {
+            return layerPath;
+          }
+        }
+      }
+    }
+
+    return nativePath;
+  }
+
+  /**
+   * Read metadata of a file on a native FS. If file is covered by a pre-scanned 
+   * FS image, metadata is read from the image, otherwise a single stat call is made.
+   * @return file's attributes or null if file doesn't exist on a native FS
+   */
+  private static NativeFileAttributes readAttributes(String nativePath) {
+    if (missingNativePaths.contains(nativePath)) {
+      return null;
+    }
+
+    NativeFileAttributes attrs;
+    if (manifest != null && manifest.covers(nativePath)) {
+      attrs = manifest.getAttributes(nativePath);
+    } else if (overlays != null && overlays.isInArchive(nativePath)) {
+      attrs = overlays.getArchiveAttributes(nativePath);
+    } else if (fsImage != null && fsImage.covers(nativePath)) {
+      attrs = fsImage.getAttributes(nativePath);
+    } else {
+      attrs = NativeFileAttributes.read(nativePath);
+    }
+
+    if (attrs == null) {
+      missingNativePaths.add(nativePath);
+    }
+
+    return attrs;
   }
 
-  private static int createFileState(MJIEnv env, File file, int cpRef) {
-    int fsRef = env.newObject("gov.nasa.jpf.FileState");
+  private static int createFileState(MJIEnv env, NativeFileAttributes attrs, String nativePath) {
+    int fsRef = env.newObject(FILE_STATE_CLASS);
     
-    env.setBooleanField(fsRef, "isDir", file.isDirectory());
-    env.setLongField(fsRef, "length", file.length());
-    env.setBooleanField(fsRef, "doesExist", true);
+    // Length of a directory is unspecified, so we don't set it
+    if (!attrs.isDir()) {
+      env.setLongField(fsRef, "length", attrs.length);
+    }
     env.setIntField(fsRef, "openCnt", 0);
-    env.setReferenceField(fsRef, "nativeFSFileName", cpRef);
-    env.setLongField(fsRef, "lastModified", file.lastModified());
-    
-    env.setBooleanField(fsRef, "isReadableForSUT", file.canRead());
-    env.setBooleanField(fsRef, "isWritableForSUT", file.canWrite());
-    env.setBooleanField(fsRef, "isExecutableForSUT", file.canExecute());
+    env.setReferenceField(fsRef, "nativeFSFileName", env.newString(nativePath));
+    env.setLongField(fsRef, "lastModified", attrs.lastModified);
+
+    int mode = JPF_gov_nasa_jpf_FileState.EXISTS;
+    if (attrs.isDir()) {
+      mode |= JPF_gov_nasa_jpf_FileState.DIRECTORY;
+    }
+
+    if (attrs.hasPermissions()) {
+      mode |= getPermissions(attrs);
+    } else {
+      // There are no permission bits on this FS, so we should ask FS about SUT rights
+      File file = new File(nativePath);
+      mode |= getSUTRights(file.canRead(), file.canWrite(), file.canExecute());
+    }
+    env.setIntField(fsRef, "mode", mode);
     
     return fsRef;
   }
+
+  /**
+   * Get POSIX permission bits and SUT rights of a file in FileState's mode format
+   */
+  private static int getPermissions(NativeFileAttributes attrs) {
+    boolean ownerExecute = attrs.isSet(NativeFileAttributes.OWNER_EXECUTE);
+    boolean groupExecute = attrs.isSet(NativeFileAttributes.GROUP_EXECUTE);
+    boolean othersExecute = attrs.isSet(NativeFileAttributes.OTHERS_EXECUTE);
+
+    boolean canRead, canWrite, canExecute;
+    if (NativeFileAttributes.isSuperUser()) {
+      canRead = true;
+      canWrite = true;
+      canExecute = attrs.isDir() || ownerExecute || groupExecute || othersExecute;
+    } else if (attrs.isOwnedByUser()) {
+      canRead = attrs.isSet(NativeFileAttributes.OWNER_READ);
+      canWrite = attrs.isSet(NativeFileAttributes.OWNER_WRITE);
+      canExecute = ownerExecute;
+    } else {
+      // We don't know groups of a current user without additional system calls,
+      // so if SUT isn't an owner group permissions are considered as SUT's ones
+      canRead = attrs.isSet(NativeFileAttributes.GROUP_READ) || attrs.isSet(NativeFileAttributes.OTHERS_READ);
+      canWrite = attrs.isSet(NativeFileAttributes.GROUP_WRITE) || attrs.isSet(NativeFileAttributes.OTHERS_WRITE);
+      canExecute = groupExecute || othersExecute;
+    }
+
+    // POSIX permission bits have the same layout in both modes
+    return (attrs.mode & JPF_gov_nasa_jpf_FileState.PERMISSIONS) | getSUTRights(canRead, canWrite, canExecute);
+  }
+
+  private static int getSUTRights(boolean canRead, boolean canWrite, boolean canExecute) {
+    int rights = 0;
+    if (canRead) {
+      rights |= JPF_gov_nasa_jpf_FileState.SUT_READ;
+    }
+    if (canWrite) {
+      rights |= JPF_gov_nasa_jpf_FileState.SUT_WRITE;
+    }
+    if (canExecute) {
+      rights |= JPF_gov_nasa_jpf_FileState.SUT_EXECUTE;
+    }
+
+    return rights;
+  }
   
-  private static boolean isReadableForSUT(MJIEnv env, int fiRef) {
-    return env.getBooleanField(fiRef, "isReadableForSUT");
+  private static boolean isReadableForSUT(MJIEnv env, int fsRef) {
+    return JPF_gov_nasa_jpf_FileState.isSet(env, fsRef, JPF_gov_nasa_jpf_FileState.SUT_READ);
   }
   
-  private static boolean isDir(MJIEnv env, int fiRef) {
-    return env.getBooleanField(fiRef, "isDir");
+  private static boolean isDir(MJIEnv env, int fsRef) {
+    return JPF_gov_nasa_jpf_FileState.isSet(env, fsRef, JPF_gov_nasa_jpf_FileState.DIRECTORY);
   }
     
   private static boolean fileExists(MJIEnv env, int fsRef) {
-    return env.getBooleanField(fsRef, "doesExist");
+    return JPF_gov_nasa_jpf_FileState.isSet(env, fsRef, JPF_gov_nasa_jpf_FileState.EXISTS);
   }
   
   private static boolean nativeFileExists(MJIEnv env, int fsRef) {
     return env.getReferenceField(fsRef, "nativeFSFileName") != MJIEnv.NULL;
   }
   
-  //  public String[] list() {
-  //
-  //    if (fileState.isDir() && fileState.exists()) {
-  //      if (fileState.isReadableForSUT()) {// && fileState.isExecutableForSUT()) {
-  //        String[] nativeFSChildren = {};
-  //
-  //        // If directory existed on a filesystem before SUT run, we can read child files
-  //        // that exist on a native FS
-  //        if (fileState.getNativeFSFileName() != null) {
-  //          nativeFSChildren = getChildrenCPs(fileState.getNativeFSFileName());
-  //        }
-  //
-  //        HashSet<String> set = new HashSet<String>();
-  //
-  //        for (String fsChild : nativeFSChildren) {
-  //          set.add(fsChild);
-  //        }
-  //        
-  //        FileInfo[] children = fileState.getChildren();
-  //        int numberOfChidren = fileState.numberOfChildren();
-  //        // Add new children to child's set remove children that were deleted by SUT
-  //        for (int i = 0; i < numberOfChidren; i++) {
-  //          FileInfo child = children[i];
-  //          
-  //          if (child.fileState.exists()) {
-  //            set.add(child.canonicalPath);
-  //          } else {
-  //            set.remove(child.canonicalPath);
-  //          }
-  //        }
-  //
-  //        String[] currentChildren = new String[set.size()];
-  //        return set.toArray(currentChildren);
-  //      }
-  //    }
-  //
-  //    // FileInfo represents not a directory, or doesn't exist, or SUT has no rights
-  //    return null;
-  //  }
   public static int list_____3Ljava_lang_String_2(MJIEnv env, int objRef) {
     String[] children = list(env, objRef);
     
@@ -174,8 +549,62 @@ public class JPF_gov_nasa_jpf_FileInfo {
   }
     
   public static String[] list(MJIEnv env, int objRef) {
+    ArrayList<String> names = listNames(env, objRef, null, Integer.MAX_VALUE);
+
+    if (names != null) {
+      String canonicalPath = getCanonicalPath(env, objRef);
+      String[] currentChildren = new String[names.size()];
+
+      for (int i = 0; i < currentChildren.length; i++) {
+        currentChildren[i] = childPath(canonicalPath, names.get(i));
+      }
+
+      return currentChildren;
+    }
+
+    return null;
+  }
+
+  public static int listPage__Ljava_lang_String_2___3Ljava_lang_String_2(MJIEnv env, int objRef, int afterNameRef) {
+    String afterName = env.getStringObject(afterNameRef);
+    ArrayList<String> names = listNames(env, objRef, afterName, pageSize);
+
+    if (names != null) {
+      return env.newStringArray(names.toArray(new String[names.size()]));
+    }
+
+    return MJIEnv.NULL;
+  }
+
+  public static int listNativeLinks_____3Ljava_lang_String_2(MJIEnv env, int objRef) {
+    int fsRef = env.getReferenceField(objRef, "fileState");
+    ArrayList<String> names = new ArrayList<String>();
+
+    if (isDir(env, fsRef) && fileExists(env, fsRef) && nativeFileExists(env, fsRef)) {
+      int childrenRef = env.getReferenceField(objRef, "children");
+      int numberOfChildren = env.getIntField(objRef, "numberOfChildren");
+
+      for (String name : getNativeLinks(env.getStringField(fsRef, "nativeFSFileName"))) {
+        // Files that were used by SUT have their own FileInfos
+        if (findByName(env, childrenRef, numberOfChildren, name) < 0) {
+          names.add(name);
+        }
+      }
+    }
+
+    return env.newStringArray(names.toArray(new String[names.size()]));
+  }
+
+  /**
+   * Get sorted names of children of a directory in a current state.
+   * @param afterName - only names that follow this name are returned. If null
+   * names are returned from the first one
+   * @param maxNames - maximum number of names to return
+   * @return list of names or null if FileInfo represents not a directory, or it 
+   * doesn't exist, or SUT has no rights to read it
+   */
+  private static ArrayList<String> listNames(MJIEnv env, int objRef, String afterName, int maxNames) {
     int fsRef = env.getReferenceField(objRef, "fileState");
-    String canonicalPath = env.getStringField(objRef, "canonicalPath"); 
     // if (fileState.isDir() && fileState.exists()) {
     if (isDir(env, fsRef) && fileExists(env, fsRef)) {
       // if (fileState.isReadableForSUT()) {// && fileState.isExecutableForSUT()) {
@@ -185,82 +614,187 @@ public class JPF_gov_nasa_jpf_FileInfo {
         // If directory existed on a filesystem before SUT run, we can read child files
         // that exist on a native FS
         if (nativeFileExists(env, fsRef)) {
-          nativeFSChildren = getChildrenCPs(canonicalPath);
+          nativeFSChildren = getNativeChildren(env.getStringField(fsRef, "nativeFSFileName"));
         }
-        
-        HashSet<String> set = new HashSet<String>();
 
-        for (String fsChild : nativeFSChildren) {
-          set.add(fsChild);
-        }
-
-        // FileInfo[] children = fileState.getChildren();
         int childrenRef = env.getReferenceField(objRef, "children");
-        // int numberOfChidren = fileState.numberOfChildren();
         int numberOfChildren = env.getIntField(objRef, "numberOfChildren");
-        // Add new children to child's set remove children that were deleted by SUT
-        for (int i = 0; i < numberOfChildren; i++) {
-          // FileInfo child = children[i];
-          int childRef = env.getReferenceArrayElement(childrenRef, i);
+        ArrayList<String> names = new ArrayList<String>();
 
-          int childFSRef = env.getReferenceField(childRef, "fileState");
-          String childCanonicalPath = env.getStringField(childRef, "canonicalPath");
+        int n = 0;
+        int b = 0;
+        if (afterName != null) {
+          n = followingPos(Arrays.binarySearch(nativeFSChildren, afterName));
+          b = followingPos(findByName(env, childrenRef, numberOfChildren, afterName));
+        }
+
+        // Both native children and BFS children are sorted by name, so they can
+        // be merged in one pass. BFS children add new files or hide native files
+        // that were deleted by SUT
+        while (b < numberOfChildren && names.size() < maxNames) {
+          int childRef = env.getReferenceArrayElement(childrenRef, b++);
+          String childName = env.getStringField(childRef, "name");
+
+          // Native files that SUT didn't use
+          while (n < nativeFSChildren.length && nativeFSChildren[n].compareTo(childName) < 0
+                 && names.size() < maxNames) {
+            names.add(nativeFSChildren[n++]);
+          }
+
+          if (names.size() == maxNames) {
+            break;
+          }
+
+          // Native file that was used by SUT
+          if (n < nativeFSChildren.length && nativeFSChildren[n].equals(childName)) {
+            n++;
+          }
 
+          int childFSRef = env.getReferenceField(childRef, "fileState");
           if (fileExists(env, childFSRef)) {
-            set.add(childCanonicalPath);
-          } else {
-            set.remove(childCanonicalPath);
-          }          
+            names.add(childName);
+          }
+        }
+
+        while (n < nativeFSChildren.length && names.size() < maxNames) {
+          names.add(nativeFSChildren[n++]);
         }
 
-        String[] currentChildren = new String[set.size()];
-        return set.toArray(currentChildren);
+        return names;
       }
     }
     // FileInfo represents not a directory, or doesn't exist, or SUT has no rights
     return null;
   }
 
-  public static int getParent__Ljava_lang_String_2__Ljava_lang_String_2(MJIEnv env, int clsRef, int fileNameRef) {
-    String fileName = env.getStringObject(fileNameRef);
-    File file = new File(fileName);
+  // Get position of the first element that follows an element with a position
+  // returned by binary search
+  private static int followingPos(int searchPos) {
+    return (searchPos >= 0) ? searchPos + 1 : -(searchPos + 1);
+  }
+
+  /**
+   * Get sorted names of children of a directory on a native FS. Children of a
+   * directory in an overlay mount are merged from all layers.
+   */
+  static String[] getNativeChildren(String nativePath) {
+    String[] children = nativeChildren.get(nativePath);
+
+    if (children == null) {
+      String[] layerPaths = (overlays != null) ? overlays.getLayerPaths(nativePath) : null;
+
+      if (layerPaths != null) {
+        TreeSet<String> merged = new TreeSet<String>();
+        for (String layerPath : layerPaths) {
+          merged.addAll(Arrays.asList(listNativeDir(layerPath)));
+        }
+        children = merged.toArray(new String[merged.size()]);
+
+      } else {
+        children = listNativeDir(nativePath);
+        Arrays.sort(children);
+      }
 
-    return env.newString(file.getParent());
+      nativeChildren.put(nativePath, children);
+    }
+
+    return children;
   }
 
-  public static boolean isFSRoot(String canonicalPath) {
-    File file = new File(canonicalPath);
+  /**
+   * Get sorted names of children of a native directory that are symbolic links.
+   * Links of a directory are found once on the first listing of its files. Archive
+   * entries and files from a manifest are never links.
+   */
+  static String[] getNativeLinks(String nativePath) {
+    String[] links = nativeLinks.get(nativePath);
+
+    if (links == null) {
+      ArrayList<String> names = new ArrayList<String>();
+
+      for (String name : getNativeChildren(nativePath)) {
+        String childPath = childPath(nativePath, name);
+        String layerPath = resolveOverlay(childPath, childPath);
 
-    return file.getParent() == null;
+        if ((manifest == null || !manifest.covers(layerPath)) && !isVirtual(layerPath)) {
+          NativeFileAttributes attrs = (fsImage != null && fsImage.covers(layerPath))
+                  ? fsImage.getAttributes(layerPath) : NativeFileAttributes.read(layerPath, false);
+
+          if (attrs != null && attrs.isLink()) {
+            names.add(name);
+          }
+        }
+      }
+
+      links = names.toArray(new String[names.size()]);
+      nativeLinks.put(nativePath, links);
+    }
+
+    return links;
   }
-  
-  public static boolean isFSRoot__Ljava_lang_String_2__Z(MJIEnv env, int clsRef, int fileNameRef) {
-    String fileName = env.getStringObject(fileNameRef);
-    File file = new File(fileName);
 
-    return file.getParent() == null;
+  private static String[] listNativeDir(String nativePath) {
+    String[] children;
+
+    if (overlays != null && overlays.isInArchive(nativePath)) {
+      children = overlays.listArchive(nativePath);
+    } else if (fsImage != null && fsImage.covers(nativePath)) {
+      children = fsImage.list(nativePath);
+    } else {
+      children = new File(nativePath).list();
+    }
+
+    if (children == null) {
+      children = new String[0];
+    }
+
+    // Files from a manifest are added to files of a native directory. File
+    // entries of a manifest have no children
+    String[] manifestChildren = (manifest != null) ? manifest.list(nativePath) : null;
+    if (manifestChildren != null) {
+      TreeSet<String> merged = new TreeSet<String>(Arrays.asList(children));
+      merged.addAll(Arrays.asList(manifestChildren));
+      children = merged.toArray(new String[merged.size()]);
+    }
+
+    return children;
   }
 
-  public static String[] getChildrenCPs(String canonicalPath) {    
+  /**
+   * Check if content of a file isn't stored on a native FS, i.e. a file is an
+   * archive entry or a file from a manifest.
+   */
+  static boolean isVirtual(String nativePath) {
+    return (manifest != null && manifest.containsFile(nativePath))
+        || (overlays != null && overlays.isInArchive(nativePath));
+  }
 
-    File dir = new File(canonicalPath);
-    String[] childs = dir.list();
-    String separator = System.getProperty("file.separator");
+  /**
+   * Get content of a file that isn't stored on a native FS.
+   * @return file's content or null if file is stored on a native FS
+   */
+  static byte[] getVirtualContent(String nativePath) throws IOException {
+    if (manifest != null) {
+      byte[] content = manifest.getContent(nativePath);
+      if (content != null) {
+        return content;
+      }
+    }
 
-    for (int i = 0; i < childs.length; i++) {
-      childs[i] = canonicalPath + separator + childs[i];
+    if (overlays != null && overlays.isInArchive(nativePath)) {
+      return overlays.getArchiveContent(nativePath);
     }
 
-    return childs;
+    return null;
   }
-  
+
   public static void checkDeleteConfig____V(MJIEnv env, int objRef) {
     int fileStateRef = env.getReferenceField(objRef, "fileState");
     int openCnt = env.getIntField(fileStateRef, "openCnt");
 
     // File is going to be deleted when it's opened
     if (openCnt > 0) {
-      String fileCP = env.getStringField(objRef, "canonicalPath");
+      String fileCP = getCanonicalPath(env, objRef);
 
       if (onOpenedDelete == FSMode.WARNING) {
         logger.warning("File ", fileCP, " deleted while opened");
@@ -276,7 +810,7 @@ public class JPF_gov_nasa_jpf_FileInfo {
 
     // File is going to be deleted when it's opened
     if (openCnt > 0) {
-      String fileCP = env.getStringField(objRef, "canonicalPath");
+      String fileCP = getCanonicalPath(env, objRef);
 
       if (onOpenedRename == FSMode.WARNING) {
         logger.warning("File ", fileCP, " renamed while opened");
@@ -292,125 +826,4 @@ public class JPF_gov_nasa_jpf_FileInfo {
 
     return tempFileCPRef;
   }
-  
-  public static int getFileInfoByCanonicalPath__Ljava_lang_String_2__Lgov_nasa_jpf_FileInfo_2(MJIEnv env, int classRef, int canonicalPathRef) {
-    int pos = findFileInfo__Ljava_lang_String_2__I(env, classRef, canonicalPathRef);
-    if (pos >= 0) {
-      int fileInfosArrayRef = env.getStaticReferenceField(classRef, "fileInfos");
-      return env.getReferenceArrayElement(fileInfosArrayRef, pos);
-    } else {
-      return MJIEnv.NULL;
-    }
-    
-  }
-    
-//  private static void addFileInfoToArray(FileInfo fi) {
-//    int pos = findFileInfo(fi.canonicalPath);   
-//  
-//    int insertPos = -(pos + 1);
-//    
-//    if (numberOfFileInfos == fileInfos.length) {
-//      FileInfo[] newFileInfos = new FileInfo[fileInfos.length * 2];
-//      System.arraycopy(fileInfos, 0, newFileInfos, 0, fileInfos.length);
-//      
-//      fileInfos = newFileInfos;
-//    }
-//    
-//    for (int i = numberOfFileInfos; i != insertPos; i--) {
-//      fileInfos[i] = fileInfos[i - 1];
-//    }
-//    
-//    fileInfos[insertPos] = fi;
-//    numberOfFileInfos++;
-//  }
-  public static void addFileInfoToArray__Lgov_nasa_jpf_FileInfo_2__V(MJIEnv env, int classRef, int fileInfoRef) {
-    int canonicalPathRef = env.getReferenceField(fileInfoRef, "canonicalPath");
-    
-    int pos = findFileInfo__Ljava_lang_String_2__I(env, classRef, canonicalPathRef);
-    
-    if (pos < 0) {
-      int insertPos = -(pos + 1);
-      
-      int fileInfosArrayRef = env.getStaticReferenceField(classRef, "fileInfos");
-      Fields fields = env.getHeap().get(fileInfosArrayRef).getFields();
-      int fileInfosFields[] = ((ReferenceArrayFields) fields).asReferenceArray();
-      
-      int fileInfosArrayLength = env.getArrayLength(fileInfosArrayRef);
-      int numberOfFileInfos = env.getStaticIntField(classRef, "numberOfFileInfos");
-      
-      if (numberOfFileInfos == fileInfosArrayLength) {       
-        
-        int newFileInfosRef = env.newObjectArray("gov.nasa.jpf.FileInfo", numberOfFileInfos * 2);
-        Fields newFields = env.getHeap().get(newFileInfosRef).getFields();
-        int newFileInfosFields[] = ((ReferenceArrayFields) newFields).asReferenceArray();
-        
-        System.arraycopy(fileInfosFields, 0, newFileInfosFields, 0, numberOfFileInfos);
-        env.setStaticReferenceField(classRef, "fileInfos", newFileInfosRef);
-        
-        fileInfosArrayRef = newFileInfosRef;
-        fileInfosFields = newFileInfosFields;
-      }
-      
-      for (int i = numberOfFileInfos; i != insertPos; i--) {
-        fileInfosFields[i] = fileInfosFields[i - 1];
-      }
-      
-      fileInfosFields[insertPos] = fileInfoRef;
-      env.setStaticIntField(classRef, "numberOfFileInfos", numberOfFileInfos + 1);
-      
-    }
-  }
-  
-//  static int findFileInfo(String cannonicalPath) {    
-//    int left = 0;
-//    int right = numberOfFileInfos - 1;
-//    
-//    while (left <= right) {
-//      int m = (left + right) /2;
-//      
-//      int sign = fileInfos[m].canonicalPath.compareTo(cannonicalPath);
-//      
-//      if (sign > 0) {
-//        right = m - 1;
-//      } else if (sign < 0) {
-//        left = m + 1;
-//      } else {
-//        return m;
-//      }
-//    }
-//    
-//    return -left - 1;
-//  }
-  public static int findFileInfo__Ljava_lang_String_2__I(MJIEnv env, int classRef, int canonicalPathRef) {
-    String canonicalPath = env.getStringObject(canonicalPathRef);
-    int left = 0;
-    //    int right = numberOfFileInfos - 1;
-    int numberOfFileInfos = env.getStaticIntField(classRef, "numberOfFileInfos");
-    int right = numberOfFileInfos - 1;
-   
-    while (left <= right) {
-      int m = (left + right) / 2;    
-    //      int sign = fileInfos[m].canonicalPath.compareTo(cannonicalPath);
-      int fileInfosArrayRef = env.getStaticReferenceField(classRef, "fileInfos");
-      int mFileInfo = env.getReferenceArrayElement(fileInfosArrayRef, m);
-      String mCanonicalPath = env.getStringField(mFileInfo, "canonicalPath") ;
-      
-      int sign = mCanonicalPath.compareTo(canonicalPath);
-   
-      if (sign > 0) {
-        right = m - 1;
-      } else if (sign < 0) {
-        left = m + 1;
-      } else {
-        return m;
-      }
-    }
-    
-    return -left - 1;
-  }
-
-  
-
- 
-
 }
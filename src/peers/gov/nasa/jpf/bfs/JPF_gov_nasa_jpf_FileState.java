@@ -20,11 +20,16 @@
 package gov.nasa.jpf.bfs;
 
 import gov.nasa.jpf.Config;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
 import gov.nasa.jpf.jvm.MJIEnv;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.ListIterator;
 
 
@@ -32,12 +37,158 @@ import java.util.ListIterator;
  *
  * @author Ivan Mushketik
  */
+@JPFOptions({
+  @JPFOption(type = "Boolean", key = "jpf-bfs.file_por", defaultValue = "false",
+        comment = "if true operations with different files are considered independent "
+        + "and scheduling points are created only for conflicting operations with the same file"),
+  @JPFOption(type = "String", key = "jpf-bfs.clock", defaultValue = "wall",
+        comment = "clock that sets time of last modification of changed files; wall = "
+        + "current time; logical = time of last modification is incremented on every "
+        + "change, so equal histories lead to equal states; frozen = time isn't changed")
+})
 public class JPF_gov_nasa_jpf_FileState {
 
+  // Mode bits of gov.nasa.jpf.FileState
+  static final int PERMISSIONS = 0777;
+  static final int SUT_READ = 01000;
+  static final int SUT_WRITE = 02000;
+  static final int SUT_EXECUTE = 04000;
+  static final int DIRECTORY = 010000;
+  static final int EXISTS = 020000;
+  static final int CONTENT_ABSTRACTED = 040000;
+
+  private static final String FILE_POR_KEY = "jpf-bfs.file_por";
+  private static final String CLOCK_KEY = "jpf-bfs.clock";
+
   private static File fsCacheDir;
+  private static boolean isFilePOR;
+  private static ClockMode clock = ClockMode.WALL;
 
   public static void init(Config config) {
     fsCacheDir = BFSUtils.getCacheDir(config);
+    chunkData.clear();
+    chunkDataSize = 0;
+    nativeHashes.clear();
+    isFilePOR = config.getBoolean(FILE_POR_KEY, false);
+    clock = config.getEnum(CLOCK_KEY, ClockMode.values(), ClockMode.WALL);
+  }
+
+  public static void updateLastModified____V(MJIEnv env, int thisPtr) {
+    switch (clock) {
+      case WALL:
+        env.setLongField(thisPtr, "lastModified", System.currentTimeMillis());
+        break;
+
+      case LOGICAL:
+        env.setLongField(thisPtr, "lastModified", env.getLongField(thisPtr, "lastModified") + 1);
+        break;
+
+      case FROZEN:
+        break;
+    }
+  }
+
+  public static boolean isFilePOREnabled____Z(MJIEnv env, int clsRef) {
+    return isFilePOR;
+  }
+
+  public static boolean isConflictingAccess__Z__Z(MJIEnv env, int thisPtr, boolean isWrite) {
+    int threadId = env.getThreadInfo().getId();
+    int readersRef = env.getReferenceField(thisPtr, "readers");
+    int writersRef = env.getReferenceField(thisPtr, "writers");
+
+    boolean isFirstAccess = !containsThread(env, readersRef, threadId)
+            && !containsThread(env, writersRef, threadId);
+
+    boolean isConflicting;
+    if (isWrite) {
+      isConflicting = containsOtherThread(env, readersRef, threadId)
+              || containsOtherThread(env, writersRef, threadId);
+      env.setReferenceField(thisPtr, "writers", addThread(env, writersRef, threadId));
+    } else {
+      isConflicting = containsOtherThread(env, writersRef, threadId);
+      env.setReferenceField(thisPtr, "readers", addThread(env, readersRef, threadId));
+    }
+
+    return isFirstAccess || isConflicting;
+  }
+
+  // Thread sets are int arrays used as bit sets indexed by thread id
+
+  private static boolean containsThread(MJIEnv env, int setRef, int threadId) {
+    if (setRef == MJIEnv.NULL) {
+      return false;
+    }
+
+    int word = threadId >>> 5;
+    return word < env.getArrayLength(setRef)
+            && (env.getIntArrayElement(setRef, word) & (1 << (threadId & 31))) != 0;
+  }
+
+  private static boolean containsOtherThread(MJIEnv env, int setRef, int threadId) {
+    if (setRef == MJIEnv.NULL) {
+      return false;
+    }
+
+    int threadWord = threadId >>> 5;
+    for (int i = 0; i < env.getArrayLength(setRef); i++) {
+      int bits = env.getIntArrayElement(setRef, i);
+      if (i == threadWord) {
+        bits &= ~(1 << (threadId & 31));
+      }
+
+      if (bits != 0) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Add a thread to a set. Set array is reallocated if thread id doesn't fit in it.
+   * @return reference to a set with added thread
+   */
+  private static int addThread(MJIEnv env, int setRef, int threadId) {
+    int word = threadId >>> 5;
+    int length = (setRef != MJIEnv.NULL) ? env.getArrayLength(setRef) : 0;
+
+    if (word >= length) {
+      int newSetRef = env.newIntArray(word + 1);
+      for (int i = 0; i < length; i++) {
+        env.setIntArrayElement(newSetRef, i, env.getIntArrayElement(setRef, i));
+      }
+      setRef = newSetRef;
+    }
+
+    int bits = env.getIntArrayElement(setRef, word);
+    int mask = 1 << (threadId & 31);
+    if ((bits & mask) == 0) {
+      env.setIntArrayElement(setRef, word, bits | mask);
+    }
+
+    return setRef;
+  }
+
+  /**
+   * Check if all specified mode bits of a FileState are set
+   */
+  static boolean isSet(MJIEnv env, int fsRef, int mask) {
+    return (env.getIntField(fsRef, "mode") & mask) == mask;
+  }
+
+  public static boolean incOpenCnt____Z(MJIEnv env, int thisPtr) {
+    int mode = env.getIntField(thisPtr, "mode");
+    if ((mode & EXISTS) != 0 && (mode & DIRECTORY) == 0) {
+      env.setIntField(thisPtr, "openCnt", env.getIntField(thisPtr, "openCnt") + 1);
+      return true;
+    }
+
+    return false;
+  }
+
+  public static void close____V(MJIEnv env, int thisPtr) {
+    env.setIntField(thisPtr, "openCnt", env.getIntField(thisPtr, "openCnt") - 1);
   }
   
   public static int write__J_3BII__I(MJIEnv env, int thisPtr, long startPos, int dataPtr, int offset, int length) throws Exception {
@@ -60,25 +211,269 @@ public class JPF_gov_nasa_jpf_FileState {
     if (startPos > fileLength) {
       skip = (int) (startPos - fileLength);
     }
+
+    // Zero bytes of a gap have zero hashes, so a hash of written data is a hash
+    // of a whole chunk
+    long dataHash = 0;
+    if (!isSet(env, thisPtr, CONTENT_ABSTRACTED)) {
+      dataHash = bytesHash(startPos, data, offset, length);
+      updateContentHash(env, thisPtr, startPos, dataHash, length, fileLength);
+    }
     
     // Write new data chunk
     int written = writeCacheData(skip, cacheFile, data, offset, length);
+    cacheChunkData(cacheFile.getName(), skip, data, offset, length);
     // Add new data chunk in a linked list
     if (skip == 0) {
-      addNewWriteChunk(env, thisPtr, startPos, length, cacheFile);
+      addNewWriteChunk(env, thisPtr, startPos, length, cacheFile, dataHash);
     } else {
-      addNewWriteChunk(env, thisPtr, fileLength, written, cacheFile);
+      addNewWriteChunk(env, thisPtr, fileLength, written, cacheFile, dataHash);
     }
     
     
     // File length was increased
     if (startPos + length > fileLength) {
-      env.setLongField(thisPtr, "length", startPos + length);
+      updateLength(env, thisPtr, startPos + length);
     }
 
     return length;
   }
 
+  // Size of a buffer that is used to read parts of write chunks that are removed
+  // from a fingerprint
+  private static final int HASH_BUFFER_SIZE = 8192;
+
+  // Cached hashes of native contents of files, by native file names
+  private static final HashMap<String, NativeContentHashes> nativeHashes = new HashMap<String, NativeContentHashes>();
+
+  /**
+   * Hash of a byte at a specified position of a file. Fingerprint of a content
+   * is a sum of these hashes, so it can be updated incrementally. Zero bytes
+   * have zero hashes, so gaps and extensions filled with zeros don't change
+   * the sum, and the length of a file is added to a fingerprint separately.
+   */
+  static long byteHash(long pos, byte b) {
+    if (b == 0) {
+      return 0;
+    }
+
+    return mix((pos << 8) | (b & 0xff));
+  }
+
+  /**
+   * Hash of a file length that is a part of a content fingerprint
+   */
+  private static boolean isSink(MJIEnv env, int fsRef) {
+    return env.getIntField(fsRef, "fileMode") == JPF_gov_nasa_jpf_FileAccessInfo.BFS_SINK;
+  }
+
+  private static long lengthHash(long length) {
+    return mix(length ^ 0x9e3779b97f4a7c15L);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  /**
+   * Set a new length of a file and replace a hash of an old length with a hash
+   * of a new one in a content fingerprint. Bytes removed by truncation should be
+   * subtracted from a fingerprint by a caller. Content of a sink file isn't
+   * stored, but its length is still a part of a fingerprint.
+   */
+  static void updateLength(MJIEnv env, int fsRef, long newLength) {
+    long oldLength = env.getLongField(fsRef, "length");
+
+    if (oldLength != newLength && (!isSet(env, fsRef, CONTENT_ABSTRACTED) || isSink(env, fsRef))) {
+      long hash = env.getLongField(fsRef, "contentHash");
+      env.setLongField(fsRef, "contentHash", hash - lengthHash(oldLength) + lengthHash(newLength));
+    }
+
+    env.setLongField(fsRef, "length", newLength);
+  }
+
+  /**
+   * Update content fingerprint before new data is written. Hashes of overwritten
+   * bytes are subtracted and a hash of new bytes is added. A new length is
+   * added by updateLength().
+   */
+  private static void updateContentHash(MJIEnv env, int thisPtr, long startPos, long dataHash, int length, long fileLength) throws Exception {
+    long overwrittenHash = 0;
+    long overwrittenEnd = Math.min(startPos + length, fileLength);
+    if (overwrittenEnd > startPos) {
+      overwrittenHash = contentHash(env, thisPtr, startPos, overwrittenEnd);
+    }
+
+    long hash = env.getLongField(thisPtr, "contentHash");
+    env.setLongField(thisPtr, "contentHash", hash - overwrittenHash + dataHash);
+  }
+
+  /**
+   * Update content fingerprint of a file that is written in place on a native
+   * FS, when overwritten bytes were already read by a caller.
+   */
+  static void updateContentHash(MJIEnv env, int fsRef, long startPos, byte[] oldBytes, byte[] data, int offset, int length, long fileLength) {
+    if (isSet(env, fsRef, CONTENT_ABSTRACTED)) {
+      return;
+    }
+
+    long hash = env.getLongField(fsRef, "contentHash");
+    hash += bytesHash(startPos, data, offset, length) - bytesHash(startPos, oldBytes, 0, oldBytes.length);
+    env.setLongField(fsRef, "contentHash", hash);
+  }
+
+  /**
+   * Update content fingerprint of a file that is truncated in place on a native FS
+   * @param removedBytes - bytes after the new end of a file
+   */
+  static void truncateContentHash(MJIEnv env, int fsRef, long newLength, byte[] removedBytes) {
+    if (!isSet(env, fsRef, CONTENT_ABSTRACTED)) {
+      long hash = env.getLongField(fsRef, "contentHash");
+      env.setLongField(fsRef, "contentHash", hash - bytesHash(newLength, removedBytes, 0, removedBytes.length));
+    }
+  }
+
+  private static long bytesHash(long startPos, byte[] bytes, int offset, int length) {
+    long hash = 0;
+
+    for (int i = 0; i < length; i++) {
+      hash += byteHash(startPos + i, bytes[offset + i]);
+    }
+
+    return hash;
+  }
+
+  // Part of a content which hash isn't found yet
+  private static class HashRange {
+    final long start;
+    final long end;
+
+    HashRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Get sum of hashes of bytes of a current content between start and end
+   * positions. Write chunks are walked from the newest one until the whole range
+   * is found. Hashes of chunks that are visible as a whole are stored in chunks,
+   * so only bytes of partially visible chunks are read. The rest of a range is
+   * hashed from cached hashes of a native content.
+   */
+  private static long contentHash(MJIEnv env, int thisPtr, long start, long end) throws Exception {
+    ArrayList<HashRange> ranges = new ArrayList<HashRange>();
+    ranges.add(new HashRange(start, end));
+    long hash = 0;
+
+    int writeChunk = env.getReferenceField(thisPtr, "lastWriteChunk");
+    while (writeChunk != MJIEnv.NULL && !ranges.isEmpty()) {
+      long wcStart = env.getLongField(writeChunk, "startPos");
+      long wcEnd = wcStart + env.getIntField(writeChunk, "length");
+
+      ListIterator<HashRange> iter = ranges.listIterator();
+      while (iter.hasNext()) {
+        HashRange range = iter.next();
+        long from = Math.max(range.start, wcStart);
+        long to = Math.min(range.end, wcEnd);
+
+        if (from < to) {
+          if (from == wcStart && to == wcEnd) {
+            hash += env.getLongField(writeChunk, "hash");
+          } else {
+            hash += chunkHash(env.getStringField(writeChunk, "fileName"), wcStart, from, to);
+          }
+
+          iter.remove();
+          if (range.start < from) {
+            iter.add(new HashRange(range.start, from));
+          }
+          if (to < range.end) {
+            iter.add(new HashRange(to, range.end));
+          }
+        }
+      }
+
+      writeChunk = env.getReferenceField(writeChunk, "prevChunk");
+    }
+
+    if (!ranges.isEmpty()) {
+      String nativeFileName = env.getStringField(thisPtr, "nativeFSFileName");
+
+      // File without native content is filled with zeros
+      if (nativeFileName != null) {
+        NativeContentHashes contentHashes = nativeHashes.get(nativeFileName);
+        if (contentHashes == null) {
+          contentHashes = new NativeContentHashes(nativeFileName);
+          nativeHashes.put(nativeFileName, contentHashes);
+        }
+
+        for (HashRange range : ranges) {
+          hash += contentHashes.hash(range.start, range.end);
+        }
+      }
+    }
+
+    return hash;
+  }
+
+  // Get sum of hashes of a part of a write chunk between from and to positions
+  private static long chunkHash(String cacheFileName, long wcStart, long from, long to) throws Exception {
+    byte[] buffer = new byte[(int) Math.min(to - from, HASH_BUFFER_SIZE)];
+    long hash = 0;
+
+    for (long pos = from; pos < to; pos += buffer.length) {
+      int len = (int) Math.min(to - pos, buffer.length);
+      readData(cacheFileName, pos - wcStart, buffer, 0, len);
+      hash += bytesHash(pos, buffer, 0, len);
+    }
+
+    return hash;
+  }
+
+  public static void setLength__J__V(MJIEnv env, int thisPtr, long newLength) throws Exception {
+    long fileLength = env.getLongField(thisPtr, "length");
+
+    if (newLength < fileLength && !isSet(env, thisPtr, CONTENT_ABSTRACTED)) {
+      long hash = env.getLongField(thisPtr, "contentHash");
+      env.setLongField(thisPtr, "contentHash", hash - contentHash(env, thisPtr, newLength, fileLength));
+    }
+
+    updateLength(env, thisPtr, newLength);
+  }
+
+  // Cache files aren't changed after they were written, so contents of recent
+  // small chunks are kept in memory. Reads of recently written data, including
+  // reads of overwritten bytes for a content fingerprint, don't reopen cache files
+  private static final int CHUNK_DATA_CACHE_SIZE = 4 * 1024 * 1024;
+  private static final int MAX_CACHED_CHUNK_SIZE = 64 * 1024;
+  private static final LinkedHashMap<String, byte[]> chunkData = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  private static long chunkDataSize;
+
+  private static void cacheChunkData(String cacheFileName, int skip, byte[] data, int offset, int length) {
+    int size = skip + length;
+    if (size > MAX_CACHED_CHUNK_SIZE) {
+      return;
+    }
+
+    byte[] content = new byte[size];
+    System.arraycopy(data, offset, content, skip, length);
+    chunkData.put(cacheFileName, content);
+    chunkDataSize += size;
+
+    Iterator<byte[]> iter = chunkData.values().iterator();
+    while (chunkDataSize > CHUNK_DATA_CACHE_SIZE && iter.hasNext()) {
+      chunkDataSize -= iter.next().length;
+      iter.remove();
+    }
+  }
+
   // Create new file to write BFS data
   private static File createCacheFile() throws IOException {
     return File.createTempFile("jpf", "cache", fsCacheDir);
@@ -87,17 +482,22 @@ public class JPF_gov_nasa_jpf_FileState {
   // Write data chunk in a separate file
   private static int writeCacheData(int skip, File cacheFile, byte[] data, int offset, int length) throws Exception {
     RandomAccessFile raf = new RandomAccessFile(cacheFile, "rws");
-    raf.seek(skip);
-    raf.write(data, offset, length);
+    try {
+      raf.seek(skip);
+      raf.write(data, offset, length);
+    } finally {
+      raf.close();
+    }
 
     return length + skip;
   }
 
   // Create new data chunk object and add it to data chunks' list
-  private static void addNewWriteChunk(MJIEnv env, int thisPtr, long startPos, int length, File cacheFile) {
+  private static void addNewWriteChunk(MJIEnv env, int thisPtr, long startPos, int length, File cacheFile, long hash) {
     int newWCRef = env.newObject("gov.nasa.jpf.WriteChunk");
     env.setLongField(newWCRef, "startPos", startPos);
     env.setIntField(newWCRef, "length", length);
+    env.setLongField(newWCRef, "hash", hash);
     int fileNameRef = env.newString(cacheFile.getName());
     env.setReferenceField(newWCRef, "fileName", fileNameRef);
 
@@ -132,6 +532,14 @@ public class JPF_gov_nasa_jpf_FileState {
       return 0;
     }
 
+    return readContent(env, thisPtr, startPos, data, offset, length);
+  }
+
+  /**
+   * Read content of a BFS file into a host buffer
+   * @return number of bytes that was read or -1 if start position is beyond a file
+   */
+  private static int readContent(MJIEnv env, int thisPtr, long startPos, byte[] data, int offset, int length) throws Exception {
     long fileLength = env.getLongField(thisPtr, "length");
 
     // Attempt to read beyond a file
@@ -157,8 +565,8 @@ public class JPF_gov_nasa_jpf_FileState {
     ArrayList<ReadChunk> readList = new ArrayList<ReadChunk>();
     readList.add(new ReadChunk(0, readBytes));
 
-    // Iterate through data chunks list
-    while (writeChunk != MJIEnv.NULL) {
+    // Iterate through data chunks list until the whole buffer is filled
+    while (writeChunk != MJIEnv.NULL && !readList.isEmpty()) {
       long wcOffset = env.getLongField(writeChunk, "startPos");
       int wcLength = env.getIntField(writeChunk, "length");
       String cacheFileName = env.getStringField(writeChunk, "fileName");
@@ -209,9 +617,14 @@ public class JPF_gov_nasa_jpf_FileState {
     // with data on a native FS
     if (!readList.isEmpty()) {
       String fsNativeFile = env.getStringField(thisPtr, "nativeFSFileName");
-      File nativeFile = new File(fsNativeFile);
+      byte[] virtualContent = JPF_gov_nasa_jpf_FileInfo.getVirtualContent(fsNativeFile);
 
-      readLeftChunksFromNativeFS(nativeFile, startPos, data, offset, readList);
+      if (virtualContent != null) {
+        readLeftChunksFromMemory(virtualContent, startPos, data, offset, readList);
+      } else {
+        File nativeFile = new File(fsNativeFile);
+        readLeftChunksFromNativeFS(nativeFile, startPos, data, offset, readList);
+      }
     }
 
     return readBytes;
@@ -234,11 +647,36 @@ public class JPF_gov_nasa_jpf_FileState {
    * @throws Exception
    */
   private static void readData(String cacheFileName, long filePos, byte[] data, int offset, int length) throws Exception {
+    byte[] content = chunkData.get(cacheFileName);
+    if (content != null) {
+      System.arraycopy(content, (int) filePos, data, offset, length);
+      return;
+    }
+
     File cacheFile = new File(fsCacheDir, cacheFileName);
     RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
 
-    raf.seek(filePos);
-    raf.read(data, offset, length);
+    try {
+      raf.seek(filePos);
+      raf.read(data, offset, length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Read parts of file that wasn't overwritten by SUT from content kept in
+   * memory: inflated archive entry or content of a file from a manifest
+   */
+  private static void readLeftChunksFromMemory(byte[] content, long startPos, byte[] data, int bufferOffset, ArrayList<ReadChunk> readList) {
+    for (ReadChunk readPos : readList) {
+      int contentOffset = (int) (startPos + readPos.offset);
+      int length = Math.min(readPos.length, content.length - contentOffset);
+
+      if (length > 0) {
+        System.arraycopy(content, contentOffset, data, bufferOffset + readPos.offset, length);
+      }
+    }
   }
 
   /**
@@ -253,12 +691,16 @@ public class JPF_gov_nasa_jpf_FileState {
   private static void readLeftChunksFromNativeFS(File nativeFile, long startPos, byte[] data, int bufferOffset, ArrayList<ReadChunk> readList) throws Exception {
     RandomAccessFile raf = new RandomAccessFile(nativeFile, "r");
 
-    for (ReadChunk readPos : readList) {      
-      int rcOffset = readPos.offset;
-      int rcLength = readPos.length;
-      raf.seek(startPos + rcOffset);
+    try {
+      for (ReadChunk readPos : readList) {      
+        int rcOffset = readPos.offset;
+        int rcLength = readPos.length;
+        raf.seek(startPos + rcOffset);
 
-      raf.read(data, bufferOffset + rcOffset, rcLength);
+        raf.read(data, bufferOffset + rcOffset, rcLength);
+      }
+    } finally {
+      raf.close();
     }
   }
 }
@@ -1,223 +1,431 @@
-//
-// Copyright  (C) 2011 United States Government as represented by the
-// Administrator of the National Aeronautics and Space Administration
-//  (NASA).  All Rights Reserved.
-// 
-// This software is distributed under the NASA Open Source Agreement
-//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
-// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
-// directory tree for the complete NOSA document.
-// 
-// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
-// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
-// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
-// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
-// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
-// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
-// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
-//
-package gov.nasa.jpf.bfs;
-
-import gov.nasa.jpf.Config;
-import gov.nasa.jpf.JPF;
-import gov.nasa.jpf.annotation.JPFOption;
-import gov.nasa.jpf.annotation.JPFOptions;
-import gov.nasa.jpf.jvm.MJIEnv;
-import gov.nasa.jpf.util.JPFLogger;
-
-import java.io.*;
-import java.util.HashMap;
-
-/**
- * @author Ivan Mushketik
- */
-@JPFOptions({
-  @JPFOption(type="String", key="jpf-bfs.ignore_write_file_read", defaultValue="nothing", 
-        comment="what to do if a file in 'ignore_write' mode is read. 'error' - throw an java.io.IOException; "
-        + "'warning' - log warning; 'nothing' - simply do nothing")
-})
-public class JPF_gov_nasa_jpf_NativeFileInterface {
-  private static final String IGNORE_WRITE_MODE_FIELD = "ignoreWriteMode";
-  private static final String FILEPOS_FIELD = "filePos";
-  private static final String FILE_STATE_FIELD = "fileState";
-
-  static JPFLogger logger = JPF.getLogger("gov.nasa.jpf.NativeFileInterface");
-  static final HashMap<Integer, RandomAccessFile> rafs = new HashMap<Integer, RandomAccessFile>();
-
-
-  private static final String IGNORE_WRITE_FILE_READ_KEY = "jpf-bfs.ignore_write_file_read";
-  private static FSMode onIgnoreWriteFileRead = FSMode.NOTHING;
-
-  public static void init(Config config) {
-     /** @jpfoption jpf-bfs.bfs.ignore_write_file_read : String {"nothing", "warning", "error"} - what to do if 
-      * a file in "ignore_write" mode is read. "error" - throw an java.io.IOException; "warning" - log warning; 
-      * "nothing" - simply do nothing*/
-    onIgnoreWriteFileRead = config.getEnum(IGNORE_WRITE_FILE_READ_KEY, FSMode.values(), FSMode.NOTHING);
-  }
-
-  public static void $init__Lgov_nasa_jpf_FileState_2Z__V(MJIEnv env, int objref, int fileStateRef, boolean ignoreWriteMode) {
-    try {
-      String canonicalPath = env.getStringField(fileStateRef, "nativeFSFileName");
-      RandomAccessFile raf = new RandomAccessFile(canonicalPath, "rws");
-      rafs.put(objref, raf);
-
-      env.setReferenceField(objref, FILE_STATE_FIELD, fileStateRef);
-      env.setBooleanField(objref, IGNORE_WRITE_MODE_FIELD, ignoreWriteMode);
-
-    } catch (FileNotFoundException ex) {
-      env.throwException("java.io.IOException", ex.getMessage());
-    }
-  }
-
-  public static void sync____V(MJIEnv env, int objref) {
-    RandomAccessFile raf = rafs.get(objref);
-
-    if (raf != null) {
-      try {
-        raf.getFD().sync();
-
-      } catch (IOException ex) {
-        env.throwException("java.io.IOException", ex.getMessage());
-      }
-    } else {
-      env.throwException("java.io.IOException", "Bad file descriptor");
-    }
-  }
-  
-  public static int readNative___3BII__I (MJIEnv env, int objref, int bufferRef, int off, int len) {
-    boolean ignoreWriteMode = env.getBooleanField(objref, IGNORE_WRITE_MODE_FIELD);
-
-    if (!ignoreWriteMode || (ignoreWriteMode && onIgnoreWriteFileRead != FSMode.ERROR)) {
-      if (onIgnoreWriteFileRead == FSMode.WARNING) {
-        logger.warning("Attempt to read file with ignore write mode");
-      }
-
-      RandomAccessFile raf = rafs.get(objref);
-      if (raf != null) {
-
-        try {
-          long filePos = env.getLongField(objref, FILEPOS_FIELD);
-          raf.seek(filePos);
-          byte[] buffer = env.getByteArrayObject(bufferRef);
-
-          int read = raf.read(buffer, off, len);
-
-          return read;
-        } catch (IOException ex) {
-          env.throwException("java.io.IOException", ex.getMessage());
-          return -1;
-        }
-      } else {
-        env.throwException("java.io.IOException", "Bad file descriptor");
-        return -1;
-      }
-
-    } else {
-      env.throwException("java.io.IOException", "Attempt to read file with ignore write mode");
-      return -1;
-    }
-  }
- 
-  public static int available____I (MJIEnv env, int objref) {
-    RandomAccessFile raf = rafs.get(objref);
-
-    if (raf != null) {
-      try {
-        long filePos = env.getLongField(objref, FILEPOS_FIELD);
-        long fileLength = raf.length();
-
-        return (int) (fileLength - filePos);
-
-      } catch (IOException ex) {
-        env.throwException("java.io.IOException", ex.getMessage());
-        return -1;
-      }
-    } else {
-      env.throwException("java.io.IOException", "Bad file descriptor");
-      return -1;
-    }
-  }
-
-  public static int writeNative___3BII__I (MJIEnv env, int objref, int bufferRef, int off, int len) {
-    boolean ignoreWriteMode = env.getBooleanField(objref, IGNORE_WRITE_MODE_FIELD);
-
-    if (!ignoreWriteMode) {
-      RandomAccessFile raf = rafs.get(objref);
-
-      if (raf != null) {
-        try {
-          long filePos = env.getLongField(objref, FILEPOS_FIELD);
-          raf.seek(filePos);
-          byte[] buffer = env.getByteArrayObject(bufferRef);
-
-          raf.write(buffer, off, len);
-
-          long newFP = raf.getFilePointer();
-          return (int) (newFP - filePos);
-
-        } catch (IOException ex) {
-          env.throwException("java.io.IOException", ex.getMessage());
-          return -1;
-        }
-      } else {
-        env.throwException("java.io.IOException", "Bad file descriptor");
-        return -1;
-      }
-    }
-    return 0;
-  }
-
-  public static void nativeClose____V (MJIEnv env, int objref) {
-    try {
-      RandomAccessFile raf = rafs.get(objref);
-      raf.close();
-      rafs.remove(objref);
-    } catch (IOException ex) {
-      env.throwException("java.io.IOException", ex.getMessage());
-    }
-  }
-
-  public static void setLength__J__V(MJIEnv env, int objref, long newLength) {
-    RandomAccessFile raf = rafs.get(objref);
-
-    if (raf != null) {
-      try {
-        long filePos = env.getLongField(objref, FILEPOS_FIELD);
-        raf.seek(filePos);
-
-        raf.setLength(newLength);
-        env.setLongField(objref, FILEPOS_FIELD, raf.getFilePointer());
-        
-        // Update file length in BFS
-        int fileStateRef = env.getReferenceField(objref, FILE_STATE_FIELD);
-        env.setLongField(fileStateRef, "length", newLength);
-
-      } catch (IOException ex) {
-        env.throwException("java.io.IOException", ex.getMessage());
-      }
-    } else {
-      env.throwException("java.io.IOException", "Bad file descriptor");
-    }
-  }
-
-  public static long length____J(MJIEnv env, int objref) {
-    RandomAccessFile raf = rafs.get(objref);
-
-    if (raf != null) {
-      try {
-        return raf.length();
-
-      } catch (IOException ex) {
-        env.throwException("java.io.IOException", ex.getMessage());
-        return -1;
-      }
-    } else {
-      env.throwException("java.io.IOException", "Bad file descriptor");
-      return -1;
-    }
-  }
-  
-  public static long getFilePointer____J(MJIEnv env, int objref) {
-    return env.getLongField(objref, FILEPOS_FIELD);
-  }
-}
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+// 
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+// 
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
+import gov.nasa.jpf.jvm.MJIEnv;
+import gov.nasa.jpf.util.JPFLogger;
+
+import java.io.*;
+
+/**
+ * @author Ivan Mushketik
+ */
+@JPFOptions({
+  @JPFOption(type="String", key="jpf-bfs.ignore_write_file_read", defaultValue="nothing", 
+        comment="what to do if a file in 'ignore_write' mode is read. 'error' - throw an java.io.IOException; "
+        + "'warning' - log warning; 'nothing' - simply do nothing"),
+  @JPFOption(type="Integer", key="jpf-bfs.native_write_buffer", defaultValue="0",
+        comment="size of a host side write buffer of every file in native mode. Buffered data is written "
+        + "on read, sync, length change or close. 0 - every write is synchronously written to a host file"),
+  @JPFOption(type="Boolean", key="jpf-bfs.native_cow", defaultValue="false",
+        comment="if true, a file in native mode is copied to a cache dir on first write, so original "
+        + "files are never changed"),
+  @JPFOption(type="Boolean", key="jpf-bfs.reflink", defaultValue="true",
+        comment="if true, private copies of native files are created as reflinks on file systems "
+        + "that support them")
+})
+public class JPF_gov_nasa_jpf_NativeFileInterface {
+  private static final String IGNORE_WRITE_MODE_FIELD = "ignoreWriteMode";
+  private static final String FILEPOS_FIELD = "filePos";
+  private static final String FILE_STATE_FIELD = "fileState";
+  private static final String LENGTH_FIELD = "length";
+  private static final String LENGTH_EPOCH_FIELD = "lengthEpoch";
+  private static final String FILE_MODE_FIELD = "fileMode";
+  private static final String NATIVE_FS_FILE_NAME_FIELD = "nativeFSFileName";
+
+  static JPFLogger logger = JPF.getLogger("gov.nasa.jpf.NativeFileInterface");
+
+  // Host files opened by NativeFileInterface objects and JPF instance that uses them
+  private static NativeHandleTable handles;
+  private static JPF handlesOwner;
+  // Changes of files in journal access mode
+  private static UndoJournal journal;
+  // Copies of native files that are changed by SUT
+  private static PrivateCopies privateCopies;
+  // Handle value of a NativeFileInterface that was closed by SUT
+  private static final int CLOSED_HANDLE = -1;
+
+
+  private static final String IGNORE_WRITE_FILE_READ_KEY = "jpf-bfs.ignore_write_file_read";
+  private static FSMode onIgnoreWriteFileRead = FSMode.NOTHING;
+
+  private static final String NATIVE_WRITE_BUFFER_KEY = "jpf-bfs.native_write_buffer";
+  private static int writeBufferSize;
+
+  private static final String NATIVE_COW_KEY = "jpf-bfs.native_cow";
+  private static boolean nativeCOW;
+
+  private static final String REFLINK_KEY = "jpf-bfs.reflink";
+  private static boolean useReflink;
+
+  // Directory for private copies of native files
+  private static File cacheDir;
+
+  public static void init(Config config) {
+     /** @jpfoption jpf-bfs.bfs.ignore_write_file_read : String {"nothing", "warning", "error"} - what to do if 
+      * a file in "ignore_write" mode is read. "error" - throw an java.io.IOException; "warning" - log warning; 
+      * "nothing" - simply do nothing*/
+    onIgnoreWriteFileRead = config.getEnum(IGNORE_WRITE_FILE_READ_KEY, FSMode.values(), FSMode.NOTHING);
+
+    /** @jpfoption jpf-bfs.native_write_buffer : Integer - size of a host side write buffer of every file
+     * in native mode. 0 - every write is synchronously written to a host file */
+    writeBufferSize = config.getInt(NATIVE_WRITE_BUFFER_KEY, 0);
+
+    /** @jpfoption jpf-bfs.native_cow : Boolean - if true, a file in native mode is copied to
+     * a cache dir on first write */
+    nativeCOW = config.getBoolean(NATIVE_COW_KEY, false);
+
+    /** @jpfoption jpf-bfs.reflink : Boolean - if true, private copies are created as reflinks
+     * on file systems that support them */
+    useReflink = config.getBoolean(REFLINK_KEY, true);
+
+    cacheDir = BFSUtils.getCacheDir(config);
+  }
+
+  /**
+   * Get handle table of a current JPF run. Table is registered as a listener
+   * to close handles on backtracking and garbage collection.
+   */
+  private static NativeHandleTable getHandles(MJIEnv env) {
+    JPF jpf = env.getJVM().getJPF();
+
+    if (handles == null || handlesOwner != jpf) {
+      handles = new NativeHandleTable(writeBufferSize);
+      journal = new UndoJournal();
+      try {
+        privateCopies = new PrivateCopies(cacheDir, useReflink);
+      } catch (IOException ex) {
+        throw new RuntimeException("Unable to use cache dir for private copies", ex);
+      }
+      handlesOwner = jpf;
+      jpf.addListener(handles);
+      jpf.addListener(journal);
+      // Copies are removed after all handles are closed
+      jpf.addListener(privateCopies);
+    }
+
+    return handles;
+  }
+
+  private static UndoJournal getJournal(MJIEnv env) {
+    getHandles(env);
+    return journal;
+  }
+
+  private static boolean isJournaled(MJIEnv env, int fileStateRef) {
+    return env.getIntField(fileStateRef, FILE_MODE_FIELD) == JPF_gov_nasa_jpf_FileAccessInfo.BFS_JOURNAL;
+  }
+
+  // Get name of a host file that is used by a NativeFileInterface object
+  private static String getHostFileName(MJIEnv env, int fileStateRef) throws IOException {
+    String nativePath = env.getStringField(fileStateRef, NATIVE_FS_FILE_NAME_FIELD);
+    getHandles(env);
+
+    if (isJournaled(env, fileStateRef) || JPF_gov_nasa_jpf_FileInfo.isVirtual(nativePath)) {
+      // Archive entries and manifest files can be read natively only from copies
+      return privateCopies.copy(nativePath);
+
+    } else if (nativeCOW || isInLowerLayer(nativePath)) {
+      // Original file is read until it's changed
+      String copyPath = privateCopies.get(nativePath);
+      return (copyPath != null) ? copyPath : nativePath;
+    }
+
+    return nativePath;
+  }
+
+  // Files in lower layers of overlay mounts are copied up before their first change
+  private static boolean isInLowerLayer(String nativePath) {
+    OverlayMounts overlays = JPF_gov_nasa_jpf_FileInfo.overlays;
+
+    return overlays != null && overlays.isInLowerLayer(nativePath);
+  }
+
+  /**
+   * Copy a native file before its first change if copy-on-write is enabled or
+   * a file is in a lower layer of an overlay. Open handles of an original file
+   * are moved to a copy.
+   */
+  private static void copyBeforeWrite(MJIEnv env, int fileStateRef) throws IOException {
+    if (isJournaled(env, fileStateRef)) {
+      return;
+    }
+
+    String nativePath = env.getStringField(fileStateRef, NATIVE_FS_FILE_NAME_FIELD);
+    if (nativeCOW || isInLowerLayer(nativePath)) {
+      if (privateCopies.get(nativePath) == null) {
+        getHandles(env).redirect(nativePath, privateCopies.copy(nativePath));
+      }
+    }
+  }
+
+  /**
+   * Open host file of a FileState and save its handle in a model object
+   * @return slot of an opened handle
+   */
+  private static int open(MJIEnv env, int objref, int fileStateRef) throws IOException {
+    NativeHandleTable table = getHandles(env);
+    String hostFileName = getHostFileName(env, fileStateRef);
+    int slot;
+
+    if (isJournaled(env, fileStateRef)) {
+      // Private copy doesn't need to be synced, and journal writes it directly
+      // on backtracking, so its writes can't be buffered
+      slot = table.open(hostFileName, "rw", false);
+    } else {
+      // Buffered data is forced to a storage device only on sync
+      String mode = (writeBufferSize > 0) ? "rw" : "rws";
+      slot = table.open(hostFileName, mode, true);
+    }
+
+    env.setIntField(objref, NativeHandleTable.HANDLE_FIELD, slot);
+    env.setIntField(objref, NativeHandleTable.HANDLE_SERIAL_FIELD, table.getSerial(slot));
+
+    return slot;
+  }
+
+  /**
+   * Get handle of a NativeFileInterface object. If its handle was closed after
+   * backtracking or state restoring, the file is opened again.
+   * @return slot of a handle or CLOSED_HANDLE if file can't be opened
+   */
+  private static int getHandle(MJIEnv env, int objref) {
+    int slot = env.getIntField(objref, NativeHandleTable.HANDLE_FIELD);
+    int serial = env.getIntField(objref, NativeHandleTable.HANDLE_SERIAL_FIELD);
+
+    if (slot == CLOSED_HANDLE || getHandles(env).isOpen(slot, serial)) {
+      return slot;
+    }
+
+    try {
+      return open(env, objref, env.getReferenceField(objref, FILE_STATE_FIELD));
+    } catch (IOException ex) {
+      logger.warning("Unable to reopen native file: ", ex.getMessage());
+      return CLOSED_HANDLE;
+    }
+  }
+
+  /**
+   * Get file length that is cached in a FileState. Length is read from a host
+   * file only if it can be changed after backtracking.
+   */
+  private static long getLength(MJIEnv env, int objref, int handle) throws IOException {
+    NativeHandleTable table = getHandles(env);
+    int fileStateRef = env.getReferenceField(objref, FILE_STATE_FIELD);
+
+    if (env.getIntField(objref, LENGTH_EPOCH_FIELD) != table.getEpoch()) {
+      JPF_gov_nasa_jpf_FileState.updateLength(env, fileStateRef, table.length(handle));
+      env.setIntField(objref, LENGTH_EPOCH_FIELD, table.getEpoch());
+    }
+
+    return env.getLongField(fileStateRef, LENGTH_FIELD);
+  }
+
+  public static void $init__Lgov_nasa_jpf_FileState_2Z__V(MJIEnv env, int objref, int fileStateRef, boolean ignoreWriteMode) {
+    try {
+      open(env, objref, fileStateRef);
+
+      env.setReferenceField(objref, FILE_STATE_FIELD, fileStateRef);
+      env.setBooleanField(objref, IGNORE_WRITE_MODE_FIELD, ignoreWriteMode);
+
+    } catch (IOException ex) {
+      env.throwException("java.io.IOException", ex.getMessage());
+    }
+  }
+
+  public static void sync____V(MJIEnv env, int objref) {
+    int handle = getHandle(env, objref);
+
+    if (handle != CLOSED_HANDLE) {
+      try {
+        getHandles(env).sync(handle);
+
+      } catch (IOException ex) {
+        env.throwException("java.io.IOException", ex.getMessage());
+      }
+    } else {
+      env.throwException("java.io.IOException", "Bad file descriptor");
+    }
+  }
+  
+  public static int readNative___3BII__I (MJIEnv env, int objref, int bufferRef, int off, int len) {
+    boolean ignoreWriteMode = env.getBooleanField(objref, IGNORE_WRITE_MODE_FIELD);
+
+    if (!ignoreWriteMode || (ignoreWriteMode && onIgnoreWriteFileRead != FSMode.ERROR)) {
+      if (onIgnoreWriteFileRead == FSMode.WARNING) {
+        logger.warning("Attempt to read file with ignore write mode");
+      }
+
+      int handle = getHandle(env, objref);
+      if (handle != CLOSED_HANDLE) {
+
+        try {
+          long filePos = env.getLongField(objref, FILEPOS_FIELD);
+          byte[] buffer = env.getByteArrayObject(bufferRef);
+
+          return getHandles(env).read(handle, filePos, buffer, off, len);
+        } catch (IOException ex) {
+          env.throwException("java.io.IOException", ex.getMessage());
+          return -1;
+        }
+      } else {
+        env.throwException("java.io.IOException", "Bad file descriptor");
+        return -1;
+      }
+
+    } else {
+      env.throwException("java.io.IOException", "Attempt to read file with ignore write mode");
+      return -1;
+    }
+  }
+
+  public static int available____I (MJIEnv env, int objref) {
+    int handle = getHandle(env, objref);
+
+    if (handle != CLOSED_HANDLE) {
+      try {
+        long filePos = env.getLongField(objref, FILEPOS_FIELD);
+        long fileLength = getLength(env, objref, handle);
+
+        return (int) (fileLength - filePos);
+
+      } catch (IOException ex) {
+        env.throwException("java.io.IOException", ex.getMessage());
+        return -1;
+      }
+    } else {
+      env.throwException("java.io.IOException", "Bad file descriptor");
+      return -1;
+    }
+  }
+
+  public static int writeNative___3BII__I (MJIEnv env, int objref, int bufferRef, int off, int len) {
+    boolean ignoreWriteMode = env.getBooleanField(objref, IGNORE_WRITE_MODE_FIELD);
+
+    if (!ignoreWriteMode) {
+      int handle = getHandle(env, objref);
+
+      if (handle != CLOSED_HANDLE) {
+        try {
+          long filePos = env.getLongField(objref, FILEPOS_FIELD);
+          byte[] buffer = env.getByteArrayObject(bufferRef);
+
+          int fileStateRef = env.getReferenceField(objref, FILE_STATE_FIELD);
+          copyBeforeWrite(env, fileStateRef);
+
+          if (isJournaled(env, fileStateRef)) {
+            // Changes of a private copy are rolled back by a journal, but content
+            // is still a part of a program state
+            long oldLength = getHandles(env).length(handle);
+            byte[] oldBytes = getJournal(env).record(getHandles(env), handle, getHostFileName(env, fileStateRef),
+                    filePos, len, oldLength);
+            JPF_gov_nasa_jpf_FileState.updateContentHash(env, fileStateRef, filePos, oldBytes, buffer, off, len, oldLength);
+          }
+
+          getHandles(env).write(handle, filePos, buffer, off, len);
+
+          // Update cached file length in BFS
+          if (filePos + len > env.getLongField(fileStateRef, LENGTH_FIELD)) {
+            JPF_gov_nasa_jpf_FileState.updateLength(env, fileStateRef, filePos + len);
+          }
+
+          return len;
+
+        } catch (IOException ex) {
+          env.throwException("java.io.IOException", ex.getMessage());
+          return -1;
+        }
+      } else {
+        env.throwException("java.io.IOException", "Bad file descriptor");
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  public static void nativeClose____V (MJIEnv env, int objref) {
+    try {
+      int slot = env.getIntField(objref, NativeHandleTable.HANDLE_FIELD);
+      int serial = env.getIntField(objref, NativeHandleTable.HANDLE_SERIAL_FIELD);
+      env.setIntField(objref, NativeHandleTable.HANDLE_FIELD, CLOSED_HANDLE);
+      getHandles(env).close(slot, serial);
+    } catch (IOException ex) {
+      env.throwException("java.io.IOException", ex.getMessage());
+    }
+  }
+
+  public static void setLength__J__V(MJIEnv env, int objref, long newLength) {
+    int handle = getHandle(env, objref);
+
+    if (handle != CLOSED_HANDLE) {
+      try {
+        int fileStateRef = env.getReferenceField(objref, FILE_STATE_FIELD);
+        copyBeforeWrite(env, fileStateRef);
+
+        if (isJournaled(env, fileStateRef)) {
+          long oldLength = getHandles(env).length(handle);
+          byte[] removedBytes = getJournal(env).record(getHandles(env), handle, getHostFileName(env, fileStateRef),
+                  newLength, oldLength - newLength, oldLength);
+          JPF_gov_nasa_jpf_FileState.truncateContentHash(env, fileStateRef, newLength, removedBytes);
+        }
+
+        getHandles(env).setLength(handle, newLength);
+
+        long filePos = env.getLongField(objref, FILEPOS_FIELD);
+        if (filePos > newLength) {
+          env.setLongField(objref, FILEPOS_FIELD, newLength);
+        }
+        
+        // Update file length in BFS
+        JPF_gov_nasa_jpf_FileState.updateLength(env, fileStateRef, newLength);
+        env.setIntField(objref, LENGTH_EPOCH_FIELD, getHandles(env).getEpoch());
+
+      } catch (IOException ex) {
+        env.throwException("java.io.IOException", ex.getMessage());
+      }
+    } else {
+      env.throwException("java.io.IOException", "Bad file descriptor");
+    }
+  }
+  
+  public static long length____J(MJIEnv env, int objref) {
+    int handle = getHandle(env, objref);
+
+    if (handle != CLOSED_HANDLE) {
+      try {
+        return getLength(env, objref, handle);
+
+      } catch (IOException ex) {
+        env.throwException("java.io.IOException", ex.getMessage());
+        return -1;
+      }
+    } else {
+      env.throwException("java.io.IOException", "Bad file descriptor");
+      return -1;
+    }
+  }
+
+  public static long getFilePointer____J(MJIEnv env, int objref) {
+    return env.getLongField(objref, FILEPOS_FIELD);
+  }
+}
@@ -18,6 +18,7 @@
 //
 package gov.nasa.jpf.bfs;
 
+import gov.nasa.jpf.Config;
 import gov.nasa.jpf.jvm.ElementInfo;
 import gov.nasa.jpf.jvm.MJIEnv;
 import java.io.File;
@@ -29,6 +30,10 @@ import java.net.URL;
 
 public class JPF_java_io_File {
 
+  public static void init(Config config) {
+    CanonicalPathCache.init(config);
+  }
+
   static File getFile(MJIEnv env, int objref) {
     int fnref = env.getReferenceField(objref, "filename");
     String fname = env.getStringObject(fnref);
@@ -40,7 +45,7 @@ public class JPF_java_io_File {
     ElementInfo fileEI = env.getElementInfo(newFileRef);
 
     int fileNameRef = env.newString(file.getPath());
-    int cannonicalPathRef = env.newString(file.getCanonicalPath());
+    int cannonicalPathRef = env.newString(CanonicalPathCache.getCanonicalPath(file.getPath()));
 
     fileEI.setReferenceField("filename", fileNameRef);
     fileEI.setReferenceField("canonicalPath", cannonicalPathRef);
@@ -50,9 +55,8 @@ public class JPF_java_io_File {
 
   public static int getCanonicalPath__Ljava_lang_String_2__Ljava_lang_String_2(MJIEnv env, int objref, int fileNameRef) throws IOException {
     String fileName = env.getStringObject(fileNameRef);
-    File file = new File(fileName);
 
-    return env.newString(file.getCanonicalPath());
+    return env.newString(CanonicalPathCache.getCanonicalPath(fileName));
   }
   
   public static int getAbsolutePath____Ljava_lang_String_2 (MJIEnv env, int objref) {
@@ -67,7 +71,7 @@ public class JPF_java_io_File {
 
   public static int getCanonicalPath____Ljava_lang_String_2 (MJIEnv env, int objref) {
     try {
-      String pn = getFile(env,objref).getCanonicalPath();
+      String pn = CanonicalPathCache.getCanonicalPath(getFile(env,objref).getPath());
       return env.newString(pn);
     } catch (IOException iox) {
       env.throwException("java.io.IOException", iox.getMessage());
@@ -0,0 +1,122 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Hashes of a content of a file on a native FS that are used to update content
+ * fingerprints of BFS files. Native content isn't changed during SUT run, so
+ * sums of byte hashes are cached for fixed size blocks when a block is hashed
+ * for the first time. Hashing a range reads only its partial first and last
+ * blocks after that.
+ *
+ * @author Ivan Mushketik
+ */
+class NativeContentHashes {
+
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private final String nativePath;
+  private final long length;
+  private final long[] blockHashes;
+  private final boolean[] hashed;
+
+  NativeContentHashes(String nativePath) throws IOException {
+    this.nativePath = nativePath;
+
+    byte[] virtualContent = JPF_gov_nasa_jpf_FileInfo.getVirtualContent(nativePath);
+    length = (virtualContent != null) ? virtualContent.length : new File(nativePath).length();
+
+    int blocks = (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    blockHashes = new long[blocks];
+    hashed = new boolean[blocks];
+  }
+
+  /**
+   * Get sum of hashes of native bytes between start and end positions. Bytes
+   * after the end of a native file are zeros, so they have zero hashes.
+   */
+  long hash(long start, long end) throws IOException {
+    end = Math.min(end, length);
+    if (start >= end) {
+      return 0;
+    }
+
+    byte[] virtualContent = JPF_gov_nasa_jpf_FileInfo.getVirtualContent(nativePath);
+    RandomAccessFile raf = null;
+    byte[] buffer = new byte[BLOCK_SIZE];
+    long hash = 0;
+
+    try {
+      for (int block = (int) (start / BLOCK_SIZE); block <= (end - 1) / BLOCK_SIZE; block++) {
+        long blockStart = (long) block * BLOCK_SIZE;
+        long blockEnd = Math.min(blockStart + BLOCK_SIZE, length);
+        long from = Math.max(start, blockStart);
+        long to = Math.min(end, blockEnd);
+
+        if (from == blockStart && to == blockEnd && hashed[block]) {
+          hash += blockHashes[block];
+          continue;
+        }
+
+        if (virtualContent == null && raf == null) {
+          raf = new RandomAccessFile(nativePath, "r");
+        }
+
+        // Whole block is hashed even if only a part of it is needed, if it
+        // wasn't hashed before
+        long readFrom = hashed[block] ? from : blockStart;
+        long readTo = hashed[block] ? to : blockEnd;
+        int len = (int) (readTo - readFrom);
+        if (virtualContent != null) {
+          System.arraycopy(virtualContent, (int) readFrom, buffer, 0, len);
+        } else {
+          raf.seek(readFrom);
+          raf.readFully(buffer, 0, len);
+        }
+
+        long rangeHash = 0;
+        long blockHash = 0;
+        for (int i = 0; i < len; i++) {
+          long pos = readFrom + i;
+          long byteHash = JPF_gov_nasa_jpf_FileState.byteHash(pos, buffer[i]);
+          blockHash += byteHash;
+          if (pos >= from && pos < to) {
+            rangeHash += byteHash;
+          }
+        }
+
+        if (!hashed[block]) {
+          blockHashes[block] = blockHash;
+          hashed[block] = true;
+        }
+        hash += rangeHash;
+      }
+    } finally {
+      if (raf != null) {
+        raf.close();
+      }
+    }
+
+    return hash;
+  }
+}
@@ -0,0 +1,477 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
+import gov.nasa.jpf.util.JPFLogger;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Pre-scanned image of a part of a native FS. Configured roots are walked once
+ * and metadata of all files under them is saved in a binary file, that is mapped
+ * to memory. FileInfo peer reads metadata and directory listings of files under
+ * these roots from the image instead of making system calls.
+ * Image is rebuilt only if modification time of one of the roots was changed.
+ *
+ * Image file format:
+ * <pre>
+ * int magic, int version, int numberOfRoots
+ * numberOfRoots times: int pathLength, byte[] path (UTF-8), long lastModified, int entry
+ * int numberOfEntries, int stringsOffset
+ * numberOfEntries times: int nameOffset, int mode, long length, long lastModified,
+ *                        int firstChild, int numberOfChildren
+ * names: int length, byte[] name (UTF-8)
+ * </pre>
+ * Children of every directory are stored in consecutive entries sorted by name,
+ * so a file is found by a binary search on every level of a path.
+ * 
+ * @author Ivan Mushketik
+ */
+@JPFOptions({
+  @JPFOption(type = "StringArray", key = "jpf-bfs.image.roots", defaultValue = "",
+        comment = "directories that are scanned at JPF start. Metadata of all files "
+        + "under these directories is read from a pre-scanned image instead of a native FS"),
+  @JPFOption(type = "String", key = "jpf-bfs.image.file", defaultValue = "",
+        comment = "file where native FS image is stored. If not set image is stored "
+        + "in a cache dir")
+})
+class NativeFSImage {
+
+  private static final JPFLogger logger = JPF.getLogger("gov.nasa.jpf.FileInfo");
+
+  private static final String IMAGE_ROOTS_KEY = "jpf-bfs.image.roots";
+  private static final String IMAGE_FILE_KEY = "jpf-bfs.image.file";
+  private static final String DEFAULT_IMAGE_NAME = "fsImage";
+
+  private static final int MAGIC = 0x42465349;
+  private static final int VERSION = 2;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // Entry field offsets
+  private static final int NAME_OFFSET = 0;
+  private static final int MODE = 4;
+  private static final int LENGTH = 8;
+  private static final int LAST_MODIFIED = 16;
+  private static final int FIRST_CHILD = 24;
+  private static final int NUMBER_OF_CHILDREN = 28;
+  private static final int ENTRY_SIZE = 32;
+
+  // Canonical paths of roots
+  private String[] roots;
+  // Entries of roots
+  private int[] rootEntries;
+  private MappedByteBuffer buffer;
+  private int entriesOffset;
+  private int stringsOffset;
+
+  /**
+   * Create native FS image if it's configured. 
+   * @return image or null if no image roots were set
+   */
+  static NativeFSImage create(Config config, File cacheDir) {
+    String[] rootNames = config.getStringArray(IMAGE_ROOTS_KEY);
+    if (rootNames == null || rootNames.length == 0) {
+      return null;
+    }
+
+    try {
+      String[] roots = new String[rootNames.length];
+      long[] rootsLastModified = new long[rootNames.length];
+      for (int i = 0; i < roots.length; i++) {
+        File root = new File(rootNames[i]);
+        roots[i] = root.getCanonicalPath();
+        rootsLastModified[i] = root.lastModified();
+      }
+
+      String imageFileName = config.getString(IMAGE_FILE_KEY);
+      File imageFile = (imageFileName != null) ? new File(imageFileName) : new File(cacheDir, DEFAULT_IMAGE_NAME);
+
+      NativeFSImage image = new NativeFSImage();
+      if (imageFile.exists() && image.load(imageFile, roots, rootsLastModified)) {
+        logger.info("Native FS image loaded from ", imageFile);
+        return image;
+      }
+
+      logger.info("Building native FS image ", imageFile);
+      build(imageFile, roots, rootsLastModified);
+      if (!image.load(imageFile, roots, rootsLastModified)) {
+        throw new IOException("Invalid image file");
+      }
+
+      return image;
+
+    } catch (IOException ex) {
+      logger.warning("Unable to create native FS image: ", ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Map image file in memory.
+   * @return true if image was loaded, false if image was built for other roots,
+   * roots were changed since then or an image file is incomplete
+   */
+  private boolean load(File imageFile, String[] roots, long[] rootsLastModified) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(imageFile, "r");
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+
+    try {
+      return readHeader(roots, rootsLastModified);
+    } catch (BufferUnderflowException ex) {
+      // Image written by an older version in place, that was interrupted
+      return false;
+    }
+  }
+
+  private boolean readHeader(String[] roots, long[] rootsLastModified) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      return false;
+    }
+
+    int numberOfRoots = buffer.getInt();
+    if (numberOfRoots != roots.length) {
+      return false;
+    }
+
+    this.roots = roots;
+    rootEntries = new int[numberOfRoots];
+    for (int i = 0; i < numberOfRoots; i++) {
+      byte[] rootBytes = new byte[buffer.getInt()];
+      buffer.get(rootBytes);
+      String root = new String(rootBytes, UTF8);
+      long lastModified = buffer.getLong();
+      rootEntries[i] = buffer.getInt();
+
+      if (!root.equals(roots[i]) || lastModified != rootsLastModified[i]) {
+        return false;
+      }
+    }
+
+    buffer.getInt(); // number of entries
+    stringsOffset = buffer.getInt();
+    entriesOffset = buffer.position();
+
+    return true;
+  }
+
+  /**
+   * Check if a file is under one of the image roots.
+   */
+  boolean covers(String nativePath) {
+    return findRoot(nativePath) >= 0;
+  }
+
+  /**
+   * Get attributes of a file from the image.
+   * @return attributes or null if file doesn't exist
+   */
+  NativeFileAttributes getAttributes(String nativePath) {
+    int entry = findEntry(nativePath);
+
+    if (entry >= 0) {
+      int pos = entriesOffset + entry * ENTRY_SIZE;
+      return new NativeFileAttributes(buffer.getInt(pos + MODE), 
+                                      buffer.getLong(pos + LENGTH), 
+                                      buffer.getLong(pos + LAST_MODIFIED));
+    }
+
+    return null;
+  }
+
+  /**
+   * Get sorted names of directory's children from the image.
+   * @return names of children or null if a directory doesn't exist
+   */
+  String[] list(String nativePath) {
+    int entry = findEntry(nativePath);
+
+    if (entry >= 0) {
+      int pos = entriesOffset + entry * ENTRY_SIZE;
+      int firstChild = buffer.getInt(pos + FIRST_CHILD);
+      String[] names = new String[buffer.getInt(pos + NUMBER_OF_CHILDREN)];
+
+      for (int i = 0; i < names.length; i++) {
+        names[i] = getName(firstChild + i);
+      }
+
+      return names;
+    }
+
+    return null;
+  }
+
+  private int findRoot(String nativePath) {
+    for (int i = 0; i < roots.length; i++) {
+      String root = roots[i];
+      if (nativePath.startsWith(root) && 
+          (nativePath.length() == root.length() || 
+           root.charAt(root.length() - 1) == File.separatorChar ||
+           nativePath.charAt(root.length()) == File.separatorChar)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private int findEntry(String nativePath) {
+    int rootNum = findRoot(nativePath);
+    int entry = rootEntries[rootNum];
+
+    // Walk through names of a path relative to the root
+    int start = roots[rootNum].length();
+    while (start < nativePath.length() && entry >= 0) {
+      int end = nativePath.indexOf(File.separatorChar, start);
+      if (end < 0) {
+        end = nativePath.length();
+      }
+
+      if (end > start) {
+        entry = findChild(entry, nativePath.substring(start, end));
+      }
+      start = end + 1;
+    }
+
+    return entry;
+  }
+
+  private int findChild(int entry, String name) {
+    int pos = entriesOffset + entry * ENTRY_SIZE;
+    int left = buffer.getInt(pos + FIRST_CHILD);
+    int right = left + buffer.getInt(pos + NUMBER_OF_CHILDREN) - 1;
+
+    while (left <= right) {
+      int m = (left + right) >>> 1;
+      int sign = getName(m).compareTo(name);
+
+      if (sign > 0) {
+        right = m - 1;
+      } else if (sign < 0) {
+        left = m + 1;
+      } else {
+        return m;
+      }
+    }
+
+    return -1;
+  }
+
+  private String getName(int entry) {
+    int nameOffset = buffer.getInt(entriesOffset + entry * ENTRY_SIZE + NAME_OFFSET);
+    return readString(buffer, stringsOffset + nameOffset);
+  }
+
+  private static String readString(ByteBuffer buffer, int pos) {
+    int length = buffer.getInt(pos);
+    byte[] bytes = new byte[length];
+
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(pos + 4);
+    duplicate.get(bytes);
+
+    return new String(bytes, UTF8);
+  }
+
+  // Scanned file
+  private static class Node {
+    byte[] name;
+    NativeFileAttributes attrs;
+    Node[] children = new Node[0];
+    int firstChild;
+    int nameOffset;
+  }
+
+  // Task that scans a directory tree. Subdirectories are scanned in parallel
+  private static class ScanTask extends RecursiveTask<Node> {
+    private final String path;
+    private final String name;
+    private final boolean followLinks;
+
+    ScanTask(String path, String name, boolean followLinks) {
+      this.path = path;
+      this.name = name;
+      this.followLinks = followLinks;
+    }
+
+    @Override
+    protected Node compute() {
+      NativeFileAttributes attrs = NativeFileAttributes.read(path, followLinks);
+      if (attrs == null) {
+        return null;
+      }
+
+      // Canonical paths never go through symbolic links, so we don't scan directories
+      // that are links, but keep attributes of link's target for a link itself
+      boolean isLink = attrs.isLink();
+      if (isLink) {
+        attrs = NativeFileAttributes.read(path, true);
+        if (attrs == null) {
+          return null;
+        }
+        attrs = new NativeFileAttributes(attrs.mode | NativeFileAttributes.SYMBOLIC_LINK,
+                                         attrs.length, attrs.lastModified);
+      }
+
+      Node node = new Node();
+      node.name = name.getBytes(UTF8);
+      node.attrs = attrs;
+
+      if (attrs.isDir() && !isLink) {
+        String[] childrenNames = new File(path).list();
+        if (childrenNames != null) {
+          Arrays.sort(childrenNames);
+
+          List<ScanTask> tasks = new ArrayList<ScanTask>(childrenNames.length);
+          for (String childName : childrenNames) {
+            tasks.add(new ScanTask(JPF_gov_nasa_jpf_FileInfo.childPath(path, childName), childName, false));
+          }
+          invokeAll(tasks);
+
+          ArrayList<Node> children = new ArrayList<Node>(tasks.size());
+          for (ScanTask task : tasks) {
+            Node child = task.join();
+            if (child != null) {
+              children.add(child);
+            }
+          }
+          node.children = children.toArray(new Node[children.size()]);
+        }
+      }
+
+      return node;
+    }
+  }
+
+  /**
+   * Walk roots in parallel and write image file. Image is written to a temporary
+   * file that replaces an old image atomically, so other JPF runs that have the
+   * old image mapped, or a run that was stopped during a build never see a
+   * partially written image.
+   */
+  private static void build(File imageFile, String[] roots, long[] rootsLastModified) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool();
+    Node[] rootNodes = new Node[roots.length];
+    try {
+      for (int i = 0; i < roots.length; i++) {
+        rootNodes[i] = pool.invoke(new ScanTask(roots[i], roots[i], true));
+        if (rootNodes[i] == null) {
+          throw new IOException("Image root " + roots[i] + " doesn't exist");
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // Number nodes in breadth first order, so children of each directory are
+    // in consecutive entries
+    ArrayList<Node> entries = new ArrayList<Node>();
+    LinkedList<Node> queue = new LinkedList<Node>();
+    int[] rootEntries = new int[roots.length];
+    for (int i = 0; i < rootNodes.length; i++) {
+      rootEntries[i] = entries.size();
+      entries.add(rootNodes[i]);
+      queue.add(rootNodes[i]);
+    }
+
+    int nameOffset = 0;
+    while (!queue.isEmpty()) {
+      Node node = queue.removeFirst();
+      node.nameOffset = nameOffset;
+      nameOffset += 4 + node.name.length;
+
+      node.firstChild = entries.size();
+      for (Node child : node.children) {
+        entries.add(child);
+        queue.add(child);
+      }
+    }
+
+    File imageDir = imageFile.getAbsoluteFile().getParentFile();
+    File tempFile = File.createTempFile(imageFile.getName(), ".tmp", imageDir);
+    boolean written = false;
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(roots.length);
+      for (int i = 0; i < roots.length; i++) {
+        byte[] root = roots[i].getBytes(UTF8);
+        out.writeInt(root.length);
+        out.write(root);
+        out.writeLong(rootsLastModified[i]);
+        out.writeInt(rootEntries[i]);
+      }
+
+      out.writeInt(entries.size());
+      out.writeInt(out.size() + 4 + entries.size() * ENTRY_SIZE);
+
+      for (Node node : entries) {
+        out.writeInt(node.nameOffset);
+        out.writeInt(node.attrs.mode);
+        out.writeLong(node.attrs.length);
+        out.writeLong(node.attrs.lastModified);
+        out.writeInt(node.firstChild);
+        out.writeInt(node.children.length);
+      }
+
+      // Names are written in the same order as entries were numbered
+      for (Node node : entries) {
+        out.writeInt(node.name.length);
+        out.write(node.name);
+      }
+
+      out.close();
+      Files.move(tempFile.toPath(), imageFile.toPath(), 
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      written = true;
+
+    } finally {
+      if (!written) {
+        out.close();
+        tempFile.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import com.sun.security.auth.module.UnixSystem;
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.util.JPFLogger;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Metadata of a file on a native FS that is needed to create FileState of a file.
+ * All permissions, file type and ownership are packed in a single mode word.
+ * @author Ivan Mushketik
+ */
+class NativeFileAttributes {
+
+  private static final JPFLogger logger = JPF.getLogger("gov.nasa.jpf.FileInfo");
+
+  // Lower 9 bits of a mode are POSIX permission bits
+  static final int OWNER_READ = 0400;
+  static final int OWNER_WRITE = 0200;
+  static final int OWNER_EXECUTE = 0100;
+  static final int GROUP_READ = 040;
+  static final int GROUP_WRITE = 020;
+  static final int GROUP_EXECUTE = 010;
+  static final int OTHERS_READ = 04;
+  static final int OTHERS_WRITE = 02;
+  static final int OTHERS_EXECUTE = 01;
+  // File is owned by a user that runs JPF
+  static final int OWNED_BY_USER = 01000;
+  // File is a directory
+  static final int DIRECTORY = 02000;
+  // Native FS has no POSIX permissions, so permission bits are not set
+  static final int NO_PERMISSIONS = 04000;
+  // File is a symbolic link. Set only if links weren't followed
+  static final int SYMBOLIC_LINK = 010000;
+
+  // File type bits of a unix mode
+  private static final int TYPE_MASK = 0170000;
+  private static final int TYPE_DIRECTORY = 0040000;
+  private static final int TYPE_LINK = 0120000;
+  // Unix attributes that are read with a single stat call
+  private static final String UNIX_ATTRIBUTES = "unix:mode,uid,size,lastModifiedTime";
+
+  // True if native FS supports unix file attributes
+  private static final boolean unixSupported =
+          FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+  // Effective uid of a process that runs JPF or null if it's unknown. SUT is
+  // run with rights of this user
+  private static final Integer currentUid = readCurrentUid();
+
+  final int mode;
+  final long length;
+  final long lastModified;
+
+  NativeFileAttributes(int mode, long length, long lastModified) {
+    this.mode = mode;
+    this.length = length;
+    this.lastModified = lastModified;
+  }
+
+  boolean isDir() {
+    return (mode & DIRECTORY) != 0;
+  }
+
+  boolean isLink() {
+    return (mode & SYMBOLIC_LINK) != 0;
+  }
+
+  boolean hasPermissions() {
+    return (mode & NO_PERMISSIONS) == 0;
+  }
+
+  boolean isOwnedByUser() {
+    return (mode & OWNED_BY_USER) != 0;
+  }
+
+  boolean isSet(int permission) {
+    return (mode & permission) != 0;
+  }
+
+  /**
+   * Read all metadata of a file on a native FS with a single stat call.
+   * @param nativePath - path of a file on a native FS
+   * @param followLinks - if false, attributes of a symbolic link itself are read
+   * @return file's attributes or null if file doesn't exist on a native FS
+   */
+  static NativeFileAttributes read(String nativePath, boolean followLinks) {
+    Path path = Paths.get(nativePath);
+    LinkOption[] options = followLinks ? new LinkOption[0] : new LinkOption[] {LinkOption.NOFOLLOW_LINKS};
+
+    try {
+      if (unixSupported) {
+        return fromUnixAttributes(Files.readAttributes(path, UNIX_ATTRIBUTES, options));
+      }
+
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, options);
+      int mode = NO_PERMISSIONS | (attrs.isDirectory() ? DIRECTORY : 0) | (attrs.isSymbolicLink() ? SYMBOLIC_LINK : 0);
+      return new NativeFileAttributes(mode, attrs.size(), attrs.lastModifiedTime().toMillis());
+
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  static NativeFileAttributes read(String nativePath) {
+    return read(nativePath, true);
+  }
+
+  private static NativeFileAttributes fromUnixAttributes(Map<String, Object> attrs) {
+    int unixMode = (Integer) attrs.get("mode");
+    int type = unixMode & TYPE_MASK;
+
+    // Permission bits have the same layout as in a unix mode
+    int mode = unixMode & 0777;
+    if (type == TYPE_DIRECTORY) {
+      mode |= DIRECTORY;
+    } else if (type == TYPE_LINK) {
+      mode |= SYMBOLIC_LINK;
+    }
+
+    if (currentUid != null && currentUid.equals(attrs.get("uid"))) {
+      mode |= OWNED_BY_USER;
+    }
+
+    long length = (Long) attrs.get("size");
+    long lastModified = ((FileTime) attrs.get("lastModifiedTime")).toMillis();
+
+    return new NativeFileAttributes(mode, length, lastModified);
+  }
+
+  /**
+   * Get effective uid of a current process. On Linux it's an owner of the
+   * process's /proc entry, on other systems uid of a current user is used.
+   * @return uid or null if it's unknown
+   */
+  private static Integer readCurrentUid() {
+    if (!unixSupported) {
+      return null;
+    }
+
+    try {
+      return (Integer) Files.getAttribute(Paths.get("/proc/self"), "unix:uid");
+    } catch (Exception ex) {
+      try {
+        return (int) new UnixSystem().getUid();
+      } catch (Throwable t) {
+        logger.warning("Unable to get uid of a current user, SUT rights will be read from group and others permissions");
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Check if JPF is run by a superuser, i.e. by a process with effective uid 0.
+   */
+  static boolean isSuperUser() {
+    return currentUid != null && currentUid == 0;
+  }
+}
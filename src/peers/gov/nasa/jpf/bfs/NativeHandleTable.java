@@ -0,0 +1,377 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.jvm.ElementInfo;
+import gov.nasa.jpf.jvm.JVM;
+import gov.nasa.jpf.search.Search;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Table of host files that are opened by NativeFileInterface objects. Model
+ * object stores a slot number and a serial number of its handle, so stale
+ * handles never collide with handles that reuse the same slot.
+ * Every handle is tied to the search depth at which it was opened. Handles
+ * that were opened in transitions that are undone by backtracking, and handles
+ * of model objects that were garbage collected, are closed. If a model object
+ * from a restored state uses a closed handle, a file is opened again.
+ * All reads and writes are positional, so handles don't have a shared file
+ * pointer. If a write buffer is used, sequential writes are collected in it and
+ * written to a host file on read, sync, length change or close. Buffers of all
+ * handles of a file are written before it's read through any of them, and
+ * buffers of other handles are written before a file is written through a
+ * handle, so at most one handle of a file has buffered data.
+ *
+ * @author Ivan Mushketik
+ */
+class NativeHandleTable extends ListenerAdapter {
+
+  static final String HANDLE_FIELD = "handle";
+  static final String HANDLE_SERIAL_FIELD = "handleSerial";
+
+  private static final String NATIVE_FILE_INTERFACE_CLASS = "gov.nasa.jpf.NativeFileInterface";
+  private static final int INITIAL_SIZE = 16;
+
+  private RandomAccessFile[] files = new RandomAccessFile[INITIAL_SIZE];
+  private String[] paths = new String[INITIAL_SIZE];
+  private String[] modes = new String[INITIAL_SIZE];
+  private int[] serials = new int[INITIAL_SIZE];
+  private int[] openDepths = new int[INITIAL_SIZE];
+  private byte[][] writeBuffers = new byte[INITIAL_SIZE][];
+  // Position in a file of the first byte in a write buffer
+  private long[] bufferPositions = new long[INITIAL_SIZE];
+  private int[] bufferLengths = new int[INITIAL_SIZE];
+  // Number of slots that were ever used
+  private int numberOfSlots;
+
+  private int[] freeSlots = new int[INITIAL_SIZE];
+  private int numberOfFreeSlots;
+
+  // Serial 0 is never used, so a handle of a new model object is always stale
+  private int nextSerial = 1;
+  // Current search depth
+  private int depth;
+  // Incremented on every backtracking, so values cached in a program state can
+  // be checked against a host file system that isn't backtracked
+  private int epoch = 1;
+
+  private final int writeBufferSize;
+
+  /**
+   * @param writeBufferSize - size of a write buffer of every handle, or 0 if
+   * writes shouldn't be buffered
+   */
+  NativeHandleTable(int writeBufferSize) {
+    this.writeBufferSize = writeBufferSize;
+  }
+
+  /**
+   * Open a host file and put it in a free slot.
+   * @param buffered - if writes to this file should be collected in a write buffer
+   * @return slot number of a new handle
+   */
+  int open(String path, String mode, boolean buffered) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, mode);
+
+    int slot;
+    if (numberOfFreeSlots > 0) {
+      slot = freeSlots[--numberOfFreeSlots];
+    } else {
+      if (numberOfSlots == files.length) {
+        grow();
+      }
+      slot = numberOfSlots++;
+    }
+
+    files[slot] = file;
+    paths[slot] = path;
+    modes[slot] = mode;
+    serials[slot] = nextSerial++;
+    // File is opened in a transition that leads to the next state
+    openDepths[slot] = depth + 1;
+    bufferLengths[slot] = 0;
+    if (!buffered || writeBufferSize == 0) {
+      writeBuffers[slot] = null;
+    } else if (writeBuffers[slot] == null) {
+      writeBuffers[slot] = new byte[writeBufferSize];
+    }
+
+    return slot;
+  }
+
+  int getSerial(int slot) {
+    return serials[slot];
+  }
+
+  /**
+   * Check if a handle is still open
+   */
+  boolean isOpen(int slot, int serial) {
+    return slot >= 0 && slot < numberOfSlots && serials[slot] == serial;
+  }
+
+  /**
+   * Read bytes from a specified position of a file
+   * @return number of read bytes or -1 if position is at the end of a file
+   */
+  int read(int slot, long pos, byte[] buf, int off, int len) throws IOException {
+    flushPath(paths[slot]);
+
+    return files[slot].getChannel().read(ByteBuffer.wrap(buf, off, len), pos);
+  }
+
+  /**
+   * Write bytes to a specified position of a file
+   */
+  void write(int slot, long pos, byte[] buf, int off, int len) throws IOException {
+    // Data buffered by other handles is older, so it's written first
+    flushPath(paths[slot], slot);
+
+    if (writeBuffers[slot] != null) {
+      int bufferLength = bufferLengths[slot];
+
+      // Only sequential writes are collected in a buffer
+      if (bufferLength > 0 && (bufferPositions[slot] + bufferLength != pos
+              || bufferLength + len > writeBufferSize)) {
+        flush(slot);
+        bufferLength = 0;
+      }
+
+      if (len < writeBufferSize) {
+        if (bufferLength == 0) {
+          bufferPositions[slot] = pos;
+        }
+        System.arraycopy(buf, off, writeBuffers[slot], bufferLength, len);
+        bufferLengths[slot] = bufferLength + len;
+        return;
+      }
+    }
+
+    writeFully(files[slot].getChannel(), ByteBuffer.wrap(buf, off, len), pos);
+  }
+
+  /**
+   * Write content of a write buffer to a host file
+   */
+  void flush(int slot) throws IOException {
+    int bufferLength = bufferLengths[slot];
+
+    if (bufferLength > 0) {
+      long bufferPosition = bufferPositions[slot];
+      bufferLengths[slot] = 0;
+      bufferPositions[slot] = 0;
+      writeFully(files[slot].getChannel(), ByteBuffer.wrap(writeBuffers[slot], 0, bufferLength),
+              bufferPosition);
+    }
+  }
+
+  /**
+   * Write content of write buffers of all handles of a host file
+   */
+  private void flushPath(String path) throws IOException {
+    flushPath(path, -1);
+  }
+
+  /**
+   * Write content of write buffers of all handles of a host file except one
+   */
+  private void flushPath(String path, int exceptSlot) throws IOException {
+    if (writeBufferSize == 0) {
+      return;
+    }
+
+    for (int slot = 0; slot < numberOfSlots; slot++) {
+      if (slot != exceptSlot && files[slot] != null && paths[slot].equals(path)) {
+        flush(slot);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer data, long pos) throws IOException {
+    while (data.hasRemaining()) {
+      pos += channel.write(data, pos);
+    }
+  }
+
+  /**
+   * Write buffered data and force all file updates to a storage device
+   */
+  void sync(int slot) throws IOException {
+    flushPath(paths[slot]);
+    files[slot].getChannel().force(true);
+  }
+
+  /**
+   * Get file length, including data in write buffers of all its handles
+   */
+  long length(int slot) throws IOException {
+    flushPath(paths[slot]);
+
+    return files[slot].length();
+  }
+
+  int getEpoch() {
+    return epoch;
+  }
+
+  void setLength(int slot, long newLength) throws IOException {
+    // Buffered data of other handles could extend a file after truncation
+    flushPath(paths[slot]);
+    files[slot].setLength(newLength);
+  }
+
+  /**
+   * Reopen all handles of a host file on another file. Handles keep their slots
+   * and serial numbers, so model objects continue to use them.
+   */
+  void redirect(String path, String newPath) throws IOException {
+    for (int slot = 0; slot < numberOfSlots; slot++) {
+      if (files[slot] != null && paths[slot].equals(path)) {
+        flush(slot);
+        files[slot].close();
+
+        files[slot] = new RandomAccessFile(newPath, modes[slot]);
+        paths[slot] = newPath;
+      }
+    }
+  }
+
+  /**
+   * Close a handle. Nothing is done if a handle was already closed.
+   */
+  void close(int slot, int serial) throws IOException {
+    if (isOpen(slot, serial)) {
+      release(slot);
+    }
+  }
+
+  private void release(int slot) throws IOException {
+    RandomAccessFile file = files[slot];
+
+    try {
+      flush(slot);
+    } finally {
+      files[slot] = null;
+      paths[slot] = null;
+      serials[slot] = 0;
+      freeSlots[numberOfFreeSlots++] = slot;
+
+      file.close();
+    }
+  }
+
+  private void releaseQuietly(int slot) {
+    try {
+      release(slot);
+    } catch (IOException ex) {
+      // Handle is already removed from the table
+    }
+  }
+
+  private void grow() {
+    int newSize = files.length * 2;
+
+    RandomAccessFile[] newFiles = new RandomAccessFile[newSize];
+    System.arraycopy(files, 0, newFiles, 0, numberOfSlots);
+    files = newFiles;
+
+    String[] newPaths = new String[newSize];
+    System.arraycopy(paths, 0, newPaths, 0, numberOfSlots);
+    paths = newPaths;
+
+    String[] newModes = new String[newSize];
+    System.arraycopy(modes, 0, newModes, 0, numberOfSlots);
+    modes = newModes;
+
+    int[] newSerials = new int[newSize];
+    System.arraycopy(serials, 0, newSerials, 0, numberOfSlots);
+    serials = newSerials;
+
+    int[] newOpenDepths = new int[newSize];
+    System.arraycopy(openDepths, 0, newOpenDepths, 0, numberOfSlots);
+    openDepths = newOpenDepths;
+
+    byte[][] newWriteBuffers = new byte[newSize][];
+    System.arraycopy(writeBuffers, 0, newWriteBuffers, 0, numberOfSlots);
+    writeBuffers = newWriteBuffers;
+
+    long[] newBufferPositions = new long[newSize];
+    System.arraycopy(bufferPositions, 0, newBufferPositions, 0, numberOfSlots);
+    bufferPositions = newBufferPositions;
+
+    int[] newBufferLengths = new int[newSize];
+    System.arraycopy(bufferLengths, 0, newBufferLengths, 0, numberOfSlots);
+    bufferLengths = newBufferLengths;
+
+    int[] newFreeSlots = new int[newSize];
+    System.arraycopy(freeSlots, 0, newFreeSlots, 0, numberOfFreeSlots);
+    freeSlots = newFreeSlots;
+  }
+
+  // Close handles that were opened in transitions that are deeper than current state
+  private void closeOpenedAfter(int depth) {
+    for (int slot = 0; slot < numberOfSlots; slot++) {
+      if (files[slot] != null && openDepths[slot] > depth) {
+        releaseQuietly(slot);
+      }
+    }
+  }
+
+  @Override
+  public void stateAdvanced(Search search) {
+    depth = search.getDepth();
+  }
+
+  @Override
+  public void stateBacktracked(Search search) {
+    depth = search.getDepth();
+    epoch++;
+    closeOpenedAfter(depth);
+  }
+
+  @Override
+  public void stateRestored(Search search) {
+    depth = search.getDepth();
+    epoch++;
+    closeOpenedAfter(depth);
+  }
+
+  @Override
+  public void objectReleased(JVM vm) {
+    ElementInfo ei = vm.getLastElementInfo();
+
+    if (ei.getClassInfo().getName().equals(NATIVE_FILE_INTERFACE_CLASS)) {
+      int slot = ei.getIntField(HANDLE_FIELD);
+      int serial = ei.getIntField(HANDLE_SERIAL_FIELD);
+
+      if (isOpen(slot, serial)) {
+        releaseQuietly(slot);
+      }
+    }
+  }
+
+  @Override
+  public void searchFinished(Search search) {
+    closeOpenedAfter(-1);
+  }
+}
@@ -0,0 +1,222 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.annotation.JPFOption;
+import gov.nasa.jpf.annotation.JPFOptions;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Overlay mounts of native directories. Every overlay has an upper directory,
+ * that SUT uses, and one or more lower directories. A file in an upper
+ * directory is looked up in all layers in order, and listing of a directory
+ * merges listings of all layers. Lower directories are never changed: BFS
+ * writes are saved in a write cache over a lower file, and files in native
+ * access modes are copied to a cache dir before their first change.
+ * Lower layer can be a zip or jar archive, that is used without extraction.
+ * Files in an archive layer have native paths like "/data/fixtures.zip!/dir/file".
+ *
+ * @author Ivan Mushketik
+ */
+@JPFOptions({
+  @JPFOption(type = "StringArray", key = "jpf-bfs.overlays", defaultValue = "",
+        comment = "names of overlay mounts. For every overlay 'jpf-bfs.overlay.<name>.upper' sets "
+        + "a directory that SUT uses and 'jpf-bfs.overlay.<name>.lower' sets read-only directories "
+        + "that are searched in order after the upper one. Lower layer can be a zip or jar archive"),
+  @JPFOption(type = "Integer", key = "jpf-bfs.archive_cache_size", defaultValue = "16777216",
+        comment = "maximum total size in bytes of inflated archive entries that are kept in memory. "
+        + "Larger entries are inflated once and kept outside of this limit")
+})
+class OverlayMounts {
+
+  private static final String OVERLAYS_KEY = "jpf-bfs.overlays";
+  private static final String OVERLAY_KEY_PREFIX = "jpf-bfs.overlay.";
+  private static final String ARCHIVE_CACHE_SIZE_KEY = "jpf-bfs.archive_cache_size";
+  private static final int DEFAULT_ARCHIVE_CACHE_SIZE = 16 * 1024 * 1024;
+
+  // Separates a path of an archive from a path of an entry in it
+  static final String ARCHIVE_SEPARATOR = "!";
+
+  // Canonical paths of layers of every overlay, upper layer first
+  private final String[][] overlays;
+  // Archive layer root -> archive
+  private final HashMap<String, ZipArchive> archives;
+
+  private OverlayMounts(String[][] overlays, HashMap<String, ZipArchive> archives) {
+    this.overlays = overlays;
+    this.archives = archives;
+  }
+
+  /**
+   * Create overlay mounts if they are configured.
+   * @return overlay mounts or null if no overlays were set
+   */
+  static OverlayMounts create(Config config) {
+    String[] names = config.getStringArray(OVERLAYS_KEY);
+    if (names == null || names.length == 0) {
+      return null;
+    }
+
+    int archiveCacheSize = config.getInt(ARCHIVE_CACHE_SIZE_KEY, DEFAULT_ARCHIVE_CACHE_SIZE);
+    HashMap<String, ZipArchive> archives = new HashMap<String, ZipArchive>();
+
+    String[][] overlays = new String[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      String prefix = OVERLAY_KEY_PREFIX + names[i];
+      String upper = config.getString(prefix + ".upper");
+      String[] lower = config.getStringArray(prefix + ".lower");
+
+      if (upper == null || lower == null || lower.length == 0) {
+        throw new JPFConfigException("Upper and lower directories should be set for overlay " + names[i]);
+      }
+
+      overlays[i] = new String[lower.length + 1];
+      overlays[i][0] = getCanonicalPath(upper);
+      for (int j = 0; j < lower.length; j++) {
+        String layer = getCanonicalPath(lower[j]);
+
+        // Regular file in a lower layer is an archive
+        if (new File(layer).isFile()) {
+          try {
+            ZipArchive archive = new ZipArchive(new File(layer), archiveCacheSize);
+            layer += ARCHIVE_SEPARATOR;
+            archives.put(layer, archive);
+
+          } catch (IOException ex) {
+            throw new JPFConfigException("Unable to open archive " + layer + ": " + ex.getMessage());
+          }
+        }
+
+        overlays[i][j + 1] = layer;
+      }
+    }
+
+    return new OverlayMounts(overlays, archives);
+  }
+
+  private static String getCanonicalPath(String path) {
+    try {
+      return new File(path).getCanonicalPath();
+    } catch (IOException ex) {
+      throw new JPFConfigException("Invalid overlay directory " + path);
+    }
+  }
+
+  /**
+   * Get paths of a file in all layers of an overlay
+   * @param path - path of a file in any layer of an overlay
+   * @return paths of a file in all layers, upper layer first, or null if file
+   * isn't in an overlay
+   */
+  String[] getLayerPaths(String path) {
+    for (String[] layers : overlays) {
+      for (String layer : layers) {
+        if (isInLayer(path, layer)) {
+          String relativePath = path.substring(layer.length());
+          String[] paths = new String[layers.length];
+
+          for (int i = 0; i < layers.length; i++) {
+            paths[i] = layers[i] + relativePath;
+          }
+
+          return paths;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Check if a file is in a lower layer of an overlay, so it shouldn't be changed
+   */
+  boolean isInLowerLayer(String path) {
+    for (String[] layers : overlays) {
+      for (int i = 1; i < layers.length; i++) {
+        if (isInLayer(path, layers[i])) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private String getArchiveRoot(String path) {
+    for (String root : archives.keySet()) {
+      if (isInLayer(path, root)) {
+        return root;
+      }
+    }
+
+    return null;
+  }
+
+  // Path of an entry relative to an archive root
+  private static String getEntryPath(String root, String path) {
+    if (path.length() == root.length()) {
+      return "";
+    }
+
+    return path.substring(root.length() + 1).replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Check if a file is stored in an archive layer
+   */
+  boolean isInArchive(String path) {
+    return !archives.isEmpty() && getArchiveRoot(path) != null;
+  }
+
+  /**
+   * @return attributes of a file in an archive or null if it doesn't exist
+   */
+  NativeFileAttributes getArchiveAttributes(String path) {
+    String root = getArchiveRoot(path);
+
+    return archives.get(root).getAttributes(getEntryPath(root, path));
+  }
+
+  /**
+   * @return sorted names of children of a directory in an archive or null if it's not a directory
+   */
+  String[] listArchive(String path) {
+    String root = getArchiveRoot(path);
+
+    return archives.get(root).list(getEntryPath(root, path));
+  }
+
+  /**
+   * Get content of a file in an archive
+   */
+  byte[] getArchiveContent(String path) throws IOException {
+    String root = getArchiveRoot(path);
+
+    return archives.get(root).getContent(getEntryPath(root, path));
+  }
+
+  private static boolean isInLayer(String path, String layer) {
+    return path.startsWith(layer)
+            && (path.length() == layer.length() || path.charAt(layer.length()) == File.separatorChar);
+  }
+}
@@ -0,0 +1,185 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.util.StringSetMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Set of path patterns that map canonical paths to decisions (e.g. file access
+ * modes). Rules are added in priority order, and if a path matches several
+ * rules, decision of a rule that was added first is used.
+ * Patterns without wildcards are matched with a single hash lookup. Patterns
+ * that are a literal prefix followed by "*" (like "/data/inputs/*") are compiled
+ * into a prefix trie, so decision of a directory applies to its whole subtree
+ * and all of them are checked in one pass over a path. Other patterns are
+ * matched by StringSetMatcher, one per decision. Decisions of recently used
+ * paths are memoized, so they aren't checked again.
+ *
+ * @author Ivan Mushketik
+ */
+class PathPolicy {
+
+  // Rank of a rule is an order in which it was added
+  private static final int NO_RULE = Integer.MAX_VALUE;
+  // Maximum number of memoized decisions
+  private static final int MEMO_SIZE = 4096;
+
+  private static class TrieNode {
+    HashMap<Character, TrieNode> children;
+    int rank = NO_RULE;
+
+    TrieNode getChild(char c) {
+      return (children != null) ? children.get(c) : null;
+    }
+
+    TrieNode addChild(char c) {
+      if (children == null) {
+        children = new HashMap<Character, TrieNode>();
+      }
+
+      TrieNode child = children.get(c);
+      if (child == null) {
+        child = new TrieNode();
+        children.put(c, child);
+      }
+
+      return child;
+    }
+  }
+
+  private final int defaultDecision;
+  // Decision of every rank
+  private final ArrayList<Integer> decisions = new ArrayList<Integer>();
+
+  private final HashMap<String, Integer> exactRules = new HashMap<String, Integer>();
+  private final TrieNode prefixRules = new TrieNode();
+  // Matcher of other patterns for every rank, null if there are no such patterns
+  private final ArrayList<StringSetMatcher> patternRules = new ArrayList<StringSetMatcher>();
+
+  // Canonical path -> decision, LRU map that removes oldest entries if there are
+  // more then MEMO_SIZE of them
+  private final Map<String, Integer> memo = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > MEMO_SIZE;
+    }
+  };
+
+  PathPolicy(int defaultDecision) {
+    this.defaultDecision = defaultDecision;
+  }
+
+  /**
+   * Add rules with lower priority than all previously added rules
+   * @param patterns - patterns from a config, can be null
+   * @param decision - decision for paths that match any of the patterns
+   */
+  void addRules(String[] patterns, int decision) {
+    int rank = decisions.size();
+    decisions.add(decision);
+    memo.clear();
+
+    ArrayList<String> otherPatterns = new ArrayList<String>();
+
+    if (patterns != null) {
+      for (String pattern : patterns) {
+        int literalLength = getLiteralLength(pattern);
+
+        if (literalLength == pattern.length()) {
+          if (!exactRules.containsKey(pattern)) {
+            exactRules.put(pattern, rank);
+          }
+
+        } else if (literalLength == pattern.length() - 1 && pattern.charAt(literalLength) == '*') {
+          TrieNode node = prefixRules;
+          for (int i = 0; i < literalLength; i++) {
+            node = node.addChild(pattern.charAt(i));
+          }
+          node.rank = Math.min(node.rank, rank);
+
+        } else {
+          otherPatterns.add(pattern);
+        }
+      }
+    }
+
+    patternRules.add(otherPatterns.isEmpty() ? null
+            : new StringSetMatcher(otherPatterns.toArray(new String[otherPatterns.size()])));
+  }
+
+  // Length of a pattern's prefix that has only characters that match themselves
+  private static int getLiteralLength(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+
+      if (!Character.isLetterOrDigit(c) && "/._-~: ".indexOf(c) < 0) {
+        return i;
+      }
+    }
+
+    return pattern.length();
+  }
+
+  /**
+   * Get decision for a canonical path
+   */
+  int getDecision(String canonicalPath) {
+    Integer decision = memo.get(canonicalPath);
+
+    if (decision == null) {
+      int rank = findRank(canonicalPath);
+      decision = (rank != NO_RULE) ? decisions.get(rank) : defaultDecision;
+      memo.put(canonicalPath, decision);
+    }
+
+    return decision;
+  }
+
+  // Find rank of a rule with the highest priority that matches a path
+  private int findRank(String path) {
+    int rank = NO_RULE;
+
+    Integer exactRank = exactRules.get(path);
+    if (exactRank != null) {
+      rank = exactRank;
+    }
+
+    TrieNode node = prefixRules;
+    for (int i = 0; node != null; i++) {
+      rank = Math.min(rank, node.rank);
+
+      node = (i < path.length()) ? node.getChild(path.charAt(i)) : null;
+    }
+
+    // Only rules with higher priority can change a decision
+    for (int i = 0; i < rank && i < patternRules.size(); i++) {
+      StringSetMatcher matcher = patternRules.get(i);
+
+      if (matcher != null && matcher.matchesAny(path)) {
+        return i;
+      }
+    }
+
+    return rank;
+  }
+}
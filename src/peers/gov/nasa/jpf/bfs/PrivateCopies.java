@@ -0,0 +1,175 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * Private copies of native files that are changed by a SUT. Copies are kept in
+ * a cache dir, so original files are never modified. If a file system supports
+ * reflinks, copy shares data blocks with an original until one of them is
+ * changed, otherwise content of a file is copied.
+ * Every JPF run keeps its copies in a separate dir inside a cache dir, that
+ * is removed when a search is finished.
+ *
+ * @author Ivan Mushketik
+ */
+class PrivateCopies extends ListenerAdapter {
+
+  private final String cacheDirPath;
+  // Dir of copies of a current JPF run
+  private final File copiesDir;
+  // Reflinks are tried until first failure
+  private boolean tryReflink;
+  // Native file name -> name of its private copy
+  private final HashMap<String, String> copies = new HashMap<String, String>();
+
+  PrivateCopies(File cacheDir, boolean tryReflink) throws IOException {
+    this.cacheDirPath = cacheDir.getCanonicalPath() + File.separator;
+    this.copiesDir = Files.createTempDirectory(cacheDir.toPath(), "copies").toFile();
+    // Only GNU cp is known to support --reflink
+    this.tryReflink = tryReflink && System.getProperty("os.name").startsWith("Linux");
+  }
+
+  /**
+   * Get private copy of a native file if it was created.
+   * @return canonical path of a private copy or null if a file wasn't copied
+   */
+  String get(String nativePath) {
+    if (isPrivate(nativePath)) {
+      return nativePath;
+    }
+
+    return copies.get(nativePath);
+  }
+
+  /**
+   * Get private copy of a native file, create it if needed.
+   * @return canonical path of a private copy
+   */
+  String copy(String nativePath) throws IOException {
+    String copyPath = get(nativePath);
+
+    if (copyPath == null) {
+      File from = new File(nativePath);
+      File copy = File.createTempFile("file", "privateCopy", copiesDir);
+
+      // Archive entries and manifest files are written from memory
+      byte[] virtualContent = JPF_gov_nasa_jpf_FileInfo.getVirtualContent(nativePath);
+
+      if (virtualContent != null) {
+        writeFile(copy, virtualContent);
+      } else if (!tryReflink || !reflink(from, copy)) {
+        copyFile(from, copy);
+      }
+
+      copyPath = copy.getCanonicalPath();
+      copies.put(nativePath, copyPath);
+    }
+
+    return copyPath;
+  }
+
+  // Files in a cache dir are created by BFS, so they don't need to be copied
+  private boolean isPrivate(String nativePath) {
+    return nativePath.startsWith(cacheDirPath);
+  }
+
+  @Override
+  public void searchFinished(Search search) {
+    File[] files = copiesDir.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+
+    copiesDir.delete();
+    copies.clear();
+  }
+
+  // Java has no access to FICLONE, so clone is requested from cp
+  private boolean reflink(File from, File to) {
+    try {
+      Process cp = new ProcessBuilder("cp", "--reflink=always", from.getPath(), to.getPath())
+              .redirectErrorStream(true).start();
+      // Output is read until cp exits, so it's never killed by a closed pipe
+      drain(cp.getInputStream());
+
+      if (cp.waitFor() == 0) {
+        return true;
+      }
+    } catch (IOException ex) {
+      // cp isn't available
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    tryReflink = false;
+    return false;
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    try {
+      byte[] buffer = new byte[1024];
+      while (in.read(buffer) != -1) {
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeFile(File file, byte[] content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void copyFile(File from, File to) throws IOException {
+    FileChannel in = new FileInputStream(from).getChannel();
+    try {
+      FileChannel out = new FileOutputStream(to).getChannel();
+      try {
+        long size = in.size();
+        long copied = 0;
+
+        while (copied < size) {
+          copied += in.transferTo(copied, size - copied, out);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
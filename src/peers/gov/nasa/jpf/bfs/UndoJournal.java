@@ -0,0 +1,176 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.JPFConfigException;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Undo journal of files in journal access mode. Such files are written in place
+ * in private copies on a native file system (see PrivateCopies). Before every
+ * change old bytes of a changed range and old file length are saved in a
+ * journal, and when search backtracks, changes that were made in undone
+ * transitions are rolled back in reverse order.
+ * Journal stores changes of a current search path only, so rolling back to a
+ * state from another path is possible only for depth-first searches. Restoring
+ * a state that isn't on a current path is reported as a configuration error.
+ *
+ * @author Ivan Mushketik
+ */
+class UndoJournal extends ListenerAdapter {
+
+  // Change of a private copy of a file
+  private static class Entry {
+    // Depth of a transition in which a change was made
+    final int depth;
+    final String path;
+    final long position;
+    final byte[] oldBytes;
+    final long oldLength;
+
+    Entry(int depth, String path, long position, byte[] oldBytes, long oldLength) {
+      this.depth = depth;
+      this.path = path;
+      this.position = position;
+      this.oldBytes = oldBytes;
+      this.oldLength = oldLength;
+    }
+  }
+
+  private final ArrayList<Entry> entries = new ArrayList<Entry>();
+  // Current search depth
+  private int depth;
+  // Ids of states on a current search path, state with depth d is at index d - 1
+  private final ArrayList<Integer> pathStates = new ArrayList<Integer>();
+
+  /**
+   * Save data of a private copy that will be overwritten or removed by a change
+   * @param position - position of a first changed byte
+   * @param len - number of bytes that are changed
+   * @param oldLength - file length before a change
+   * @return bytes of a file that are changed
+   */
+  byte[] record(NativeHandleTable table, int slot, String path, long position, long len, long oldLength) throws IOException {
+    byte[] oldBytes = new byte[(int) Math.max(0, Math.min(len, oldLength - position))];
+    int read = 0;
+
+    while (read < oldBytes.length) {
+      int n = table.read(slot, position + read, oldBytes, read, oldBytes.length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+
+    // Change is made in a transition that leads to the next state
+    entries.add(new Entry(depth + 1, path, position, oldBytes, oldLength));
+
+    return oldBytes;
+  }
+
+  // Undo changes that were made in transitions deeper than a current state
+  private void rollback(int depth) {
+    HashMap<String, RandomAccessFile> files = new HashMap<String, RandomAccessFile>();
+
+    try {
+      for (int i = entries.size() - 1; i >= 0 && entries.get(i).depth > depth; i--) {
+        Entry entry = entries.remove(i);
+        RandomAccessFile file = files.get(entry.path);
+
+        if (file == null) {
+          file = new RandomAccessFile(entry.path, "rw");
+          files.put(entry.path, file);
+        }
+
+        file.seek(entry.position);
+        file.write(entry.oldBytes);
+        if (file.length() != entry.oldLength) {
+          file.setLength(entry.oldLength);
+        }
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to roll back journaled file", ex);
+
+    } finally {
+      for (RandomAccessFile file : files.values()) {
+        try {
+          file.close();
+        } catch (IOException ex) {
+          // All changes are already written
+        }
+      }
+    }
+  }
+
+  // Remove states that are deeper than a current state from a current path
+  private void truncatePath(int depth) {
+    while (pathStates.size() > Math.max(0, depth)) {
+      pathStates.remove(pathStates.size() - 1);
+    }
+  }
+
+  // Check if a state is an initial state or a state on a current search path
+  private boolean isOnPath(int depth, int stateId) {
+    return depth <= 0 || (depth <= pathStates.size() && pathStates.get(depth - 1) == stateId);
+  }
+
+  @Override
+  public void stateAdvanced(Search search) {
+    depth = search.getDepth();
+
+    if (depth > 0) {
+      truncatePath(depth - 1);
+      pathStates.add(search.getStateId());
+    }
+  }
+
+  @Override
+  public void stateBacktracked(Search search) {
+    depth = search.getDepth();
+    truncatePath(depth);
+    rollback(depth);
+  }
+
+  @Override
+  public void stateRestored(Search search) {
+    int restoredDepth = search.getDepth();
+
+    // Changes made on other paths are already rolled back, so content of a
+    // private copy can't be rebuilt for such state
+    if (!isOnPath(restoredDepth, search.getStateId())) {
+      throw new JPFConfigException("State " + search.getStateId() + " isn't on a current search path. "
+              + "Journal file access mode can be used with depth-first search only");
+    }
+
+    depth = restoredDepth;
+    truncatePath(depth);
+    rollback(depth);
+  }
+
+  @Override
+  public void searchFinished(Search search) {
+    entries.clear();
+    pathStates.clear();
+  }
+}
@@ -0,0 +1,199 @@
+//
+// Copyright (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+// (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+// (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.bfs;
+
+import gov.nasa.jpf.JPF;
+import gov.nasa.jpf.util.JPFLogger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Read-only directory tree that is stored in a zip or jar archive. File
+ * metadata and directory listings are read from a central directory when an
+ * archive is opened, and content of entries is inflated on demand. Inflated
+ * entries are kept in a LRU cache with a bounded total size. Entries that are
+ * larger than the whole cache are inflated once and kept outside of it, so
+ * they aren't inflated again on every read.
+ * Entry paths are relative to an archive root and use '/' as a separator,
+ * root entry path is an empty string.
+ *
+ * @author Ivan Mushketik
+ */
+class ZipArchive {
+
+  private static final JPFLogger logger = JPF.getLogger("gov.nasa.jpf.FileInfo");
+
+  // Archive itself is never changed, but entries are writable by an owner like
+  // files of other lower layers, and SUT changes are kept in a write cache
+  private static final int FILE_MODE = NativeFileAttributes.OWNED_BY_USER | 0644;
+  private static final int DIR_MODE = NativeFileAttributes.OWNED_BY_USER | NativeFileAttributes.DIRECTORY | 0755;
+
+  private final ZipFile zipFile;
+  private final HashMap<String, NativeFileAttributes> attributes = new HashMap<String, NativeFileAttributes>();
+  private final HashMap<String, String[]> children = new HashMap<String, String[]>();
+
+  private final long maxInflatedSize;
+  private long inflatedSize;
+  // Inflated entries in access order
+  private final LinkedHashMap<String, byte[]> inflated = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  // Entries that don't fit in a cache
+  private final HashMap<String, byte[]> largeEntries = new HashMap<String, byte[]>();
+
+  ZipArchive(File file, long maxInflatedSize) throws IOException {
+    this.zipFile = new ZipFile(file);
+    this.maxInflatedSize = maxInflatedSize;
+
+    long archiveLastModified = file.lastModified();
+    HashMap<String, TreeSet<String>> childLists = new HashMap<String, TreeSet<String>>();
+    attributes.put("", new NativeFileAttributes(DIR_MODE, 0, archiveLastModified));
+    childLists.put("", new TreeSet<String>());
+
+    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      String path = entry.getName();
+      if (path.endsWith("/")) {
+        path = path.substring(0, path.length() - 1);
+      }
+
+      if (entry.isDirectory()) {
+        attributes.put(path, new NativeFileAttributes(DIR_MODE, 0, entry.getTime()));
+        if (!childLists.containsKey(path)) {
+          childLists.put(path, new TreeSet<String>());
+        }
+      } else {
+        attributes.put(path, new NativeFileAttributes(FILE_MODE, entry.getSize(), entry.getTime()));
+      }
+
+      addToParents(path, archiveLastModified, childLists);
+    }
+
+    for (Map.Entry<String, TreeSet<String>> childList : childLists.entrySet()) {
+      TreeSet<String> names = childList.getValue();
+      children.put(childList.getKey(), names.toArray(new String[names.size()]));
+    }
+  }
+
+  // Archive can have no entries for directories, so they are created implicitly
+  private void addToParents(String path, long lastModified, HashMap<String, TreeSet<String>> childLists) {
+    while (path.length() > 0) {
+      int slash = path.lastIndexOf('/');
+      String parent = (slash >= 0) ? path.substring(0, slash) : "";
+      String name = path.substring(slash + 1);
+
+      TreeSet<String> names = childLists.get(parent);
+      boolean parentKnown = (names != null);
+      if (!parentKnown) {
+        names = new TreeSet<String>();
+        childLists.put(parent, names);
+        attributes.put(parent, new NativeFileAttributes(DIR_MODE, 0, lastModified));
+      }
+
+      names.add(name);
+
+      if (parentKnown) {
+        break;
+      }
+      path = parent;
+    }
+  }
+
+  /**
+   * @return attributes of an entry or null if there is no such entry
+   */
+  NativeFileAttributes getAttributes(String entryPath) {
+    return attributes.get(entryPath);
+  }
+
+  /**
+   * @return sorted names of children of a directory entry or null if it's not a directory
+   */
+  String[] list(String entryPath) {
+    return children.get(entryPath);
+  }
+
+  /**
+   * Get inflated content of a file entry
+   */
+  byte[] getContent(String entryPath) throws IOException {
+    byte[] content = inflated.get(entryPath);
+    if (content == null) {
+      content = largeEntries.get(entryPath);
+    }
+
+    if (content == null) {
+      ZipEntry entry = zipFile.getEntry(entryPath);
+      if (entry == null || entry.isDirectory()) {
+        throw new IOException("No file entry " + entryPath + " in " + zipFile.getName());
+      }
+
+      content = inflate(entry);
+      cache(entryPath, content);
+    }
+
+    return content;
+  }
+
+  private byte[] inflate(ZipEntry entry) throws IOException {
+    byte[] content = new byte[(int) entry.getSize()];
+    InputStream in = zipFile.getInputStream(entry);
+
+    try {
+      int read = 0;
+      while (read < content.length) {
+        int n = in.read(content, read, content.length - read);
+        if (n < 0) {
+          throw new IOException("Unexpected end of entry " + entry.getName());
+        }
+        read += n;
+      }
+    } finally {
+      in.close();
+    }
+
+    return content;
+  }
+
+  private void cache(String entryPath, byte[] content) {
+    if (content.length > maxInflatedSize) {
+      logger.warning("Entry ", entryPath, " of ", zipFile.getName(), " is larger than ",
+              "jpf-bfs.archive_cache_size, it's kept in memory outside of a cache");
+      largeEntries.put(entryPath, content);
+      return;
+    }
+
+    inflated.put(entryPath, content);
+    inflatedSize += content.length;
+
+    Iterator<byte[]> iter = inflated.values().iterator();
+    while (inflatedSize > maxInflatedSize) {
+      inflatedSize -= iter.next().length;
+      iter.remove();
+    }
+  }
+}
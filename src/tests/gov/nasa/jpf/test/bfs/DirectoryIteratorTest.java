@@ -0,0 +1,125 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.DirectoryIterator;
+import gov.nasa.jpf.FileInfo;
+import gov.nasa.jpf.jvm.Verify;
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.util.ArrayList;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class DirectoryIteratorTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!fileSandbox.mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directory");
+    }
+
+    for (String name : new String[] {"a", "c", "e", "g", "i"}) {
+      if (!new File(fileSandbox, name).createNewFile()) {
+        throw new RuntimeException("Unable to create file for DirectoryIterator testing");
+      }
+    }
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+  }
+
+  static final String SMALL_PAGE = "+jpf-bfs.list_page_size = 2";
+
+  private static String iterate(String dirName) throws Exception {
+    FileInfo dir = FileInfo.getFileInfo(new File(dirName).getCanonicalPath());
+    DirectoryIterator iter = dir.listIterator();
+
+    String result = "";
+    while (iter.hasNext()) {
+      result += iter.next();
+    }
+
+    return result;
+  }
+
+  @Test
+  public void testIterateNativeDirectory() throws Exception {
+    if (verifyNoPropertyViolation(SMALL_PAGE)) {
+      assertEquals("acegi", iterate("fileSandbox"));
+    }
+  }
+
+  @Test
+  public void testIterateAfterChanges() throws Exception {
+    if (verifyNoPropertyViolation(SMALL_PAGE)) {
+      new File("fileSandbox/b").createNewFile();
+      new File("fileSandbox/e").delete();
+      new File("fileSandbox/j").mkdir();
+
+      Verify.getBoolean();
+      assertEquals("abcgij", iterate("fileSandbox"));
+    }
+  }
+
+  @Test
+  public void testSeeChangesDuringIteration() throws Exception {
+    if (verifyNoPropertyViolation(SMALL_PAGE)) {
+      FileInfo dir = FileInfo.getFileInfo(new File("fileSandbox").getCanonicalPath());
+      DirectoryIterator iter = dir.listIterator();
+
+      ArrayList<String> names = new ArrayList<String>();
+      names.add(iter.next());
+      names.add(iter.next());
+
+      // Next page wasn't read yet
+      new File("fileSandbox/f").createNewFile();
+      new File("fileSandbox/g").delete();
+
+      while (iter.hasNext()) {
+        names.add(iter.next());
+      }
+
+      assertEquals("[a, c, e, f, i]", names.toString());
+    }
+  }
+
+  @Test
+  public void testIterateNotADirectory() throws Exception {
+    if (verifyNoPropertyViolation()) {
+      assertEquals("", iterate("fileSandbox/a"));
+      assertEquals("", iterate("fileSandbox/doesntExist"));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.FileInterface;
+import gov.nasa.jpf.FileInterfaceFactory;
+import gov.nasa.jpf.FileState;
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static gov.nasa.jpf.test.java.io.BFSTestUtils.*;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class FileBackendTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!fileSandbox.mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directory");
+    }
+
+    if (!new File("fileSandbox/testFile").createNewFile()) {
+      throw new RuntimeException("Unable to create file for file backend testing");
+    }
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+  }
+
+  /**
+   * Backend of files that contain three bytes with value 7
+   */
+  public static class SevensFileInterface extends FileInterface {
+    static final int LENGTH = 3;
+
+    SevensFileInterface(FileState fileState) {
+      this.fileState = fileState;
+    }
+
+    public void sync() {
+    }
+
+    public int read(byte[] buf, int off, int len) throws IOException {
+      int read = (int) Math.min(len, LENGTH - filePos);
+      if (read <= 0) {
+        return -1;
+      }
+
+      for (int i = 0; i < read; i++) {
+        buf[off + i] = 7;
+      }
+      filePos += read;
+
+      return read;
+    }
+
+    public int available() throws IOException {
+      return (int) (LENGTH - filePos);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+      throw new IOException("Read only backend");
+    }
+
+    public void close() throws IOException {
+      fileState.close();
+    }
+
+    public void setLength(long newLength) throws IOException {
+      throw new IOException("Read only backend");
+    }
+
+    public void seek(long pos) throws IOException {
+      filePos = pos;
+    }
+
+    public long length() {
+      return LENGTH;
+    }
+
+    public long getFilePointer() {
+      return filePos;
+    }
+  }
+
+  public static class SevensFactory extends FileInterfaceFactory {
+    public FileInterface create(FileState fileState) {
+      return new SevensFileInterface(fileState);
+    }
+  }
+
+  @Test
+  public void testCustomBackend() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.backends = sevens",
+                                  "+jpf-bfs.backend.sevens.factory = " + SevensFactory.class.getName(),
+                                  "+jpf-bfs.backend.sevens.files = *testFile")) {
+      FileInputStream fis = new FileInputStream("fileSandbox/testFile");
+      byte[] buffer = new byte[5];
+      int read = fis.read(buffer);
+      fis.close();
+
+      assertReadResult(new byte[] {7, 7, 7}, buffer, read);
+    }
+  }
+}
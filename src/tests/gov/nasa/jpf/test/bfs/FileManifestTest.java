@@ -0,0 +1,122 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class FileManifestTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!fileSandbox.mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directory");
+    }
+
+    FileOutputStream fos = new FileOutputStream("fileSandbox/payload");
+    fos.write(new byte[] {1, 2, 3});
+    fos.close();
+
+    FileWriter fw = new FileWriter("fileSandbox/manifest");
+    fw.write("# type permissions path content\n");
+    // Paths are relative to a directory of a manifest
+    fw.write("d 755 virtual\n");
+    fw.write("f 644 virtual/text text:ab\\n\n");
+    fw.write("f 444 virtual/data/bin file:payload\n");
+    fw.write("f 644 virtual/empty\n");
+    fw.close();
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+  }
+
+  static final String[] MANIFEST = {
+    "+jpf-bfs.manifest = fileSandbox/manifest"
+  };
+
+  @Test
+  public void testManifestFiles() throws Exception {
+    if (verifyNoPropertyViolation(MANIFEST)) {
+      File virtual = new File("fileSandbox/virtual");
+      assertTrue(virtual.isDirectory());
+      assertEquals(3, virtual.list().length);
+
+      // Parent directory is created implicitly
+      assertTrue(new File("fileSandbox/virtual/data").isDirectory());
+      assertEquals(0, new File("fileSandbox/virtual/empty").length());
+
+      File text = new File("fileSandbox/virtual/text");
+      assertEquals(3, text.length());
+      assertTrue(text.canWrite());
+
+      FileInputStream fis = new FileInputStream(text);
+      assertEquals('a', fis.read());
+      assertEquals('b', fis.read());
+      assertEquals('\n', fis.read());
+      assertEquals(-1, fis.read());
+      fis.close();
+
+      File bin = new File("fileSandbox/virtual/data/bin");
+      assertFalse(bin.canWrite());
+      fis = new FileInputStream(bin);
+      assertEquals(1, fis.read());
+      assertEquals(2, fis.read());
+      assertEquals(3, fis.read());
+      fis.close();
+    }
+
+    if (!isJPFRun()) {
+      // Manifest files are never created on a native FS
+      assertFalse(new File("fileSandbox/virtual").exists());
+    }
+  }
+
+  @Test
+  public void testChangeManifestFile() throws Exception {
+    if (verifyNoPropertyViolation(MANIFEST)) {
+      FileOutputStream fos = new FileOutputStream("fileSandbox/virtual/text", true);
+      fos.write('c');
+      fos.close();
+
+      assertEquals(4, new File("fileSandbox/virtual/text").length());
+      assertTrue(new File("fileSandbox/virtual/new").createNewFile());
+      assertEquals(4, new File("fileSandbox/virtual").list().length);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.jvm.Verify;
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static gov.nasa.jpf.test.java.io.BFSTestUtils.*;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class JournalFileAccessTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!fileSandbox.mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directory");
+    }
+
+    File testFile = new File("fileSandbox/testFile");
+
+    if (!testFile.createNewFile()) {
+      throw new RuntimeException("Unable to create file for journal access mode testing");
+    }
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+  }
+
+  @Before
+  public void setTestFileContent() throws Exception {
+    RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+    raf.setLength(0);
+    raf.write(new byte[] {1, 2, 3, 4, 5});
+
+    raf.close();
+  }
+
+  static final String JOURNAL_SANDBOX = "+jpf-bfs.bfs.journal = *fileSandbox/*";
+
+  @Test
+  public void testOverwriteIsRolledBack() throws Exception {
+    if (verifyNoPropertyViolation(JOURNAL_SANDBOX)) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      Verify.getBoolean(true);
+      byte[] buffer = new byte[7];
+      raf.seek(0);
+      int read = raf.read(buffer);
+
+      // Both executions read original content
+      assertReadResult(new byte[] {1, 2, 3, 4, 5}, buffer, read);
+
+      raf.seek(3);
+      raf.write(new byte[] {42, 42});
+    }
+
+    if (!isJPFRun()) {
+      // Original file isn't changed
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "r");
+      byte[] buffer = new byte[7];
+      int read = raf.read(buffer);
+      raf.close();
+
+      assertReadResult(new byte[] {1, 2, 3, 4, 5}, buffer, read);
+    }
+  }
+
+  @Test
+  public void testLengthChangesAreRolledBack() throws Exception {
+    if (verifyNoPropertyViolation(JOURNAL_SANDBOX)) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      boolean b = Verify.getBoolean(true);
+      assertEquals(5, raf.length());
+
+      if (!b) {
+        raf.seek(5);
+        raf.write(new byte[] {6, 7});
+        assertEquals(7, raf.length());
+      } else {
+        raf.setLength(2);
+        assertEquals(2, raf.length());
+      }
+    }
+  }
+
+  @Test
+  public void testStatesWithDifferentExtensionsDontMatch() throws Exception {
+    if (verifyUnhandledException("java.lang.AssertionError", JOURNAL_SANDBOX)) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+      // Extension adds zero bytes that are journaled as an empty range
+      raf.setLength(Verify.getBoolean() ? 7 : 6);
+
+      // If a state with a longer private copy matched a state with a shorter
+      // one, the assertion wouldn't fail
+      Verify.getBoolean();
+      assertEquals(6, raf.length());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.jvm.Verify;
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class NativeFSImageTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!fileSandbox.mkdir() || !new File(fileSandbox, "dir").mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directory");
+    }
+
+    for (String name : new String[] {"a", "b", "dir/c"}) {
+      if (!new File(fileSandbox, name).createNewFile()) {
+        throw new RuntimeException("Unable to create file for native FS image testing");
+      }
+    }
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    new File("fileSandboxImage").delete();
+  }
+
+  static final String IMAGE_ROOTS = "+jpf-bfs.image.roots = fileSandbox";
+  static final String IMAGE_FILE = "+jpf-bfs.image.file = fileSandboxImage";
+
+  @Test
+  public void testReadFromImage() throws Exception {
+    if (verifyNoPropertyViolation(IMAGE_ROOTS, IMAGE_FILE)) {
+      File dir = new File("fileSandbox/dir");
+      assertTrue(dir.isDirectory());
+      assertTrue(new File("fileSandbox/a").isFile());
+      assertFalse(new File("fileSandbox/doesntExist").exists());
+
+      String[] names = new File("fileSandbox").list();
+      Arrays.sort(names);
+      assertEquals("[a, b, dir]", Arrays.toString(names));
+      assertEquals("[c]", Arrays.toString(dir.list()));
+    }
+  }
+
+  @Test
+  public void testChangeFilesFromImage() throws Exception {
+    if (verifyNoPropertyViolation(IMAGE_ROOTS, IMAGE_FILE)) {
+      new File("fileSandbox/a").delete();
+      new File("fileSandbox/dir/d").createNewFile();
+
+      Verify.getBoolean();
+
+      String[] names = new File("fileSandbox/dir").list();
+      Arrays.sort(names);
+      assertEquals("[c, d]", Arrays.toString(names));
+      assertFalse(new File("fileSandbox/a").exists());
+    }
+  }
+
+  @Test
+  public void testIncompleteImageIsRebuilt() throws Exception {
+    if (!isJPFRun()) {
+      // Image of a build that was interrupted
+      FileOutputStream fos = new FileOutputStream("fileSandboxImage");
+      fos.write(new byte[] {0x42, 0x46});
+      fos.close();
+    }
+
+    if (verifyNoPropertyViolation(IMAGE_ROOTS, IMAGE_FILE)) {
+      assertTrue(new File("fileSandbox/dir/c").isFile());
+    }
+
+    if (!isJPFRun()) {
+      assertTrue(new File("fileSandboxImage").length() > 2);
+
+      // Image is written through a temporary file that is renamed
+      for (String name : new File(".").list()) {
+        assertFalse(name.startsWith("fileSandboxImage") && name.endsWith(".tmp"));
+      }
+    }
+  }
+}
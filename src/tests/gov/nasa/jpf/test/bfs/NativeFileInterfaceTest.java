@@ -274,6 +274,65 @@ public class NativeFileInterfaceTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testExcludeDirectoryByPrefix() throws Exception {
+    if (!isJPFRun()) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+      raf.write(new byte[] {1, 2, 3});
+      raf.close();
+    }
+
+    // Prefix of a directory's path applies to all files in it
+    String sandboxPrefix = new File("fileSandbox").getCanonicalPath() + File.separator + "*";
+
+    if (verifyNoPropertyViolation("+jpf-bfs.bfs.exclude = " + sandboxPrefix)) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+
+      boolean b = Verify.getBoolean(true);
+      int read = raf.read();
+
+      if (!b) {
+        assertEquals(1, read);
+      } else {
+        // Write from the first execution wasn't backtracked
+        assertEquals(42, read);
+      }
+
+      raf.seek(0);
+      raf.write(42);
+    }
+  }
+
+  @Test
+  public void testDescriptorClosedInBacktrackedBranch() throws Exception {
+    if (!isJPFRun()) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+      raf.write(new byte[] {1, 2, 3});
+      raf.close();
+    }
+
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX)) {
+      RandomAccessFile outer = new RandomAccessFile("fileSandbox/testFile", "r");
+
+      // Starts from false
+      boolean b = Verify.getBoolean(true);
+
+      if (!b) {
+        // Handle of a closed descriptor can be reused by a new one, that is
+        // closed when this branch is backtracked
+        outer.close();
+        RandomAccessFile inner = new RandomAccessFile("fileSandbox/testFile", "r");
+        assertEquals(1, inner.read());
+      } else {
+        // Descriptor that was closed in a backtracked branch is open again
+        assertTrue(outer.getFD().valid());
+        assertEquals(1, outer.read());
+        assertEquals(2, outer.read());
+        outer.close();
+      }
+    }
+  }
+
   @Test
   public void testChangeFileLength() throws Exception {
      if (verifyNoPropertyViolation(EXCLUDE_SANDBOX)) {
@@ -287,6 +346,160 @@ public class NativeFileInterfaceTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testBufferedWrite() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_write_buffer = 4")) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      raf.write(new byte[] {1, 2});
+      raf.write(new byte[] {3, 4, 5});
+      assertEquals(5, raf.length());
+
+      raf.seek(1);
+      assertEquals(2, raf.read());
+      raf.close();
+
+      FileInputStream fis = new FileInputStream("fileSandbox/testFile");
+      byte[] buffer = new byte[7];
+      int read = fis.read(buffer);
+      fis.close();
+
+      assertReadResult(new byte[] {1, 2, 3, 4, 5}, buffer, read);
+    }
+  }
+
+  @Test
+  public void testBufferedWriteIsVisibleThroughOtherHandle() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_write_buffer = 4")) {
+      RandomAccessFile writer = new RandomAccessFile("fileSandbox/testFile", "rw");
+      RandomAccessFile reader = new RandomAccessFile("fileSandbox/testFile", "r");
+
+      writer.write(new byte[] {1, 2});
+
+      byte[] buffer = new byte[4];
+      int read = reader.read(buffer);
+      assertReadResult(new byte[] {1, 2}, buffer, read);
+
+      writer.close();
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testLaterWriteThroughOtherHandleWins() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_write_buffer = 4")) {
+      RandomAccessFile first = new RandomAccessFile("fileSandbox/testFile", "rw");
+      RandomAccessFile second = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      first.write(new byte[] {1, 2});
+      second.write(new byte[] {3, 4});
+      // Doesn't fit in a buffer, so it's written directly
+      first.seek(0);
+      first.write(new byte[] {5, 6, 7, 8});
+      second.seek(0);
+      second.write(new byte[] {9});
+
+      byte[] buffer = new byte[4];
+      first.seek(0);
+      int read = first.read(buffer);
+      assertReadResult(new byte[] {9, 6, 7, 8}, buffer, read);
+
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void testLengthAfterFlushedBufferIsTruncated() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_write_buffer = 4")) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      raf.write(new byte[] {1, 2, 3});
+      // Doesn't fit in a buffer, so it's buffered from position 3
+      raf.write(new byte[] {4, 5});
+      // Read writes a buffer to a host file
+      raf.seek(0);
+      assertEquals(1, raf.read());
+      raf.setLength(1);
+
+      // Starts from false
+      boolean b = Verify.getBoolean(true);
+
+      // Length is read from a host file after backtracking
+      assertEquals(1, raf.length());
+    }
+  }
+
+  @Test
+  public void testLengthAfterBacktrackedAppend() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX)) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      // Starts from false
+      boolean b = Verify.getBoolean(true);
+
+      // Appended data isn't removed by backtracking
+      if (!b) {
+        assertEquals(0, raf.length());
+      } else {
+        assertEquals(2, raf.length());
+      }
+
+      raf.seek(raf.length());
+      raf.write(new byte[] {1, 2});
+    }
+  }
+
+  @Test
+  public void testCopyOnWriteKeepsOriginal() throws Exception {
+    if (!isJPFRun()) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+      raf.write(new byte[] {1, 2, 3});
+      raf.close();
+    }
+
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_cow = true")) {
+      RandomAccessFile reader = new RandomAccessFile("fileSandbox/testFile", "r");
+      RandomAccessFile writer = new RandomAccessFile("fileSandbox/testFile", "rw");
+
+      writer.seek(1);
+      writer.write(42);
+
+      // Handles that were opened before first write use a copy too
+      byte[] buffer = new byte[5];
+      int read = reader.read(buffer);
+      assertReadResult(new byte[] {1, 42, 3}, buffer, read);
+
+      reader.close();
+      writer.close();
+    }
+
+    if (!isJPFRun()) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "r");
+      byte[] buffer = new byte[5];
+      int read = raf.read(buffer);
+      raf.close();
+
+      assertReadResult(new byte[] {1, 2, 3}, buffer, read);
+    }
+  }
+
+  @Test
+  public void testCopiesAreRemovedAfterSearch() throws Exception {
+    if (verifyNoPropertyViolation(EXCLUDE_SANDBOX, "+jpf-bfs.native_cow = true",
+            "+jpf-bfs.writecache_dir = fileSandbox/cache")) {
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+      raf.write(42);
+      raf.close();
+    }
+
+    if (!isJPFRun()) {
+      for (String name : new File("fileSandbox/cache").list()) {
+        assertFalse(name.startsWith("copies"));
+      }
+    }
+  }
+
   @Test
   public void testIsDescriptorValid() throws Exception {
     if (verifyNoPropertyViolation(EXCLUDE_SANDBOX)) {
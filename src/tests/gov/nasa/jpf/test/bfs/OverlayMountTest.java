@@ -0,0 +1,174 @@
+//
+// Copyright  (C) 2011 United States Government as represented by the
+// Administrator of the National Aeronautics and Space Administration
+//  (NASA).  All Rights Reserved.
+//
+// This software is distributed under the NASA Open Source Agreement
+//  (NOSA), version 1.3.  The NOSA has been approved by the Open Source
+// Initiative.  See the file NOSA-1.3-JPF at the top of the distribution
+// directory tree for the complete NOSA document.
+//
+// THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY WARRANTY OF ANY
+// KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY, INCLUDING, BUT NOT
+// LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL CONFORM TO
+// SPECIFICATIONS, ANY IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR
+// A PARTICULAR PURPOSE, OR FREEDOM FROM INFRINGEMENT, ANY WARRANTY THAT
+// THE SUBJECT SOFTWARE WILL BE ERROR FREE, OR ANY WARRANTY THAT
+// DOCUMENTATION, IF PROVIDED, WILL CONFORM TO THE SUBJECT SOFTWARE.
+//
+package gov.nasa.jpf.test.bfs;
+
+import gov.nasa.jpf.util.FileUtils;
+import gov.nasa.jpf.util.test.TestJPF;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ivan Mushketik
+ */
+public class OverlayMountTest extends TestJPF {
+  @BeforeClass
+  public static void setUpFileSandbox() throws Exception {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+
+    if (!new File("fileSandbox/upper").mkdirs() || !new File("fileSandbox/lower/dir").mkdirs()) {
+      throw new RuntimeException("Unable to create sandbox directories");
+    }
+
+    writeFile("fileSandbox/upper/a", 1);
+    writeFile("fileSandbox/lower/a", 9);
+    writeFile("fileSandbox/lower/b", 2);
+    writeFile("fileSandbox/lower/dir/c", 3);
+
+    if (!new File("fileSandbox/archiveUpper").mkdir()) {
+      throw new RuntimeException("Unable to create sandbox directories");
+    }
+
+    ZipOutputStream zos = new ZipOutputStream(new FileOutputStream("fileSandbox/fixtures.zip"));
+    zos.putNextEntry(new ZipEntry("top"));
+    zos.write(6);
+    zos.closeEntry();
+    zos.putNextEntry(new ZipEntry("zdir/e"));
+    zos.write(new byte[] {4, 5});
+    zos.closeEntry();
+    zos.close();
+  }
+
+  private static void writeFile(String name, int b) throws Exception {
+    FileOutputStream fos = new FileOutputStream(name);
+    fos.write(b);
+    fos.close();
+  }
+
+  private static int readFile(String name) throws Exception {
+    FileInputStream fis = new FileInputStream(name);
+    int b = fis.read();
+    fis.close();
+
+    return b;
+  }
+
+  @AfterClass
+  public static void removeFileSandbox() {
+    File fileSandbox = new File("fileSandbox");
+    if (fileSandbox.exists()) {
+      FileUtils.removeRecursively(fileSandbox);
+    }
+  }
+
+  static final String[] OVERLAY = {
+    "+jpf-bfs.overlays = sandbox",
+    "+jpf-bfs.overlay.sandbox.upper = fileSandbox/upper",
+    "+jpf-bfs.overlay.sandbox.lower = fileSandbox/lower"
+  };
+
+  @Test
+  public void testLookupSearchesLayers() throws Exception {
+    if (verifyNoPropertyViolation(OVERLAY)) {
+      // File from an upper layer hides a file from a lower layer
+      assertEquals(1, readFile("fileSandbox/upper/a"));
+      assertEquals(2, readFile("fileSandbox/upper/b"));
+      assertEquals(3, readFile("fileSandbox/upper/dir/c"));
+      assertTrue(new File("fileSandbox/upper/dir").isDirectory());
+      assertFalse(new File("fileSandbox/upper/d").exists());
+    }
+  }
+
+  @Test
+  public void testListingMergesLayers() throws Exception {
+    if (verifyNoPropertyViolation(OVERLAY)) {
+      String[] names = new File("fileSandbox/upper").list();
+      Arrays.sort(names);
+
+      assertEquals(3, names.length);
+      assertTrue(names[0].endsWith("a"));
+      assertTrue(names[1].endsWith("b"));
+      assertTrue(names[2].endsWith("dir"));
+    }
+  }
+
+  static final String[] ARCHIVE_OVERLAY = {
+    "+jpf-bfs.overlays = archive",
+    "+jpf-bfs.overlay.archive.upper = fileSandbox/archiveUpper",
+    "+jpf-bfs.overlay.archive.lower = fileSandbox/fixtures.zip"
+  };
+
+  @Test
+  public void testArchiveLowerLayer() throws Exception {
+    if (verifyNoPropertyViolation(ARCHIVE_OVERLAY)) {
+      File zipDir = new File("fileSandbox/archiveUpper/zdir");
+      assertTrue(zipDir.isDirectory());
+      assertEquals(1, zipDir.list().length);
+
+      File entry = new File("fileSandbox/archiveUpper/zdir/e");
+      assertEquals(2, entry.length());
+
+      FileInputStream fis = new FileInputStream(entry);
+      assertEquals(4, fis.read());
+      assertEquals(5, fis.read());
+      assertEquals(-1, fis.read());
+      fis.close();
+
+      // Entries can be changed by SUT
+      writeFile("fileSandbox/archiveUpper/top", 7);
+      assertEquals(7, readFile("fileSandbox/archiveUpper/top"));
+    }
+  }
+
+  @Test
+  public void testReadEntryLargerThanCache() throws Exception {
+    if (verifyNoPropertyViolation(ARCHIVE_OVERLAY[0], ARCHIVE_OVERLAY[1], ARCHIVE_OVERLAY[2],
+            "+jpf-bfs.archive_cache_size = 1")) {
+      // Entry is inflated once and read sequentially from memory
+      FileInputStream fis = new FileInputStream("fileSandbox/archiveUpper/zdir/e");
+      assertEquals(4, fis.read());
+      assertEquals(5, fis.read());
+      assertEquals(-1, fis.read());
+      fis.close();
+    }
+  }
+
+  @Test
+  public void testWriteToLowerLayerFile() throws Exception {
+    if (verifyNoPropertyViolation(OVERLAY)) {
+      writeFile("fileSandbox/upper/b", 5);
+      assertEquals(5, readFile("fileSandbox/upper/b"));
+    }
+
+    if (!isJPFRun()) {
+      // Lower layer isn't changed
+      assertEquals(2, readFile("fileSandbox/lower/b"));
+    }
+  }
+}
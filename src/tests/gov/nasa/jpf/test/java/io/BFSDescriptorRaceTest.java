@@ -18,6 +18,8 @@
 //
 package gov.nasa.jpf.test.java.io;
 
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.util.ClassSpec;
 import gov.nasa.jpf.util.FileUtils;
 import gov.nasa.jpf.util.test.TestJPF;
@@ -362,4 +364,118 @@ public class BFSDescriptorRaceTest extends TestJPF {
       t2.start();
     }
   }
+
+  static final String FILE_POR = "+jpf-bfs.file_por = true";
+
+  /**
+   * Counts new states that were reached by a search
+   */
+  public static class StateCounter extends ListenerAdapter {
+    static int newStates;
+
+    @Override
+    public void searchStarted(Search search) {
+      newStates = 0;
+    }
+
+    @Override
+    public void stateAdvanced(Search search) {
+      if (search.isNewState()) {
+        newStates++;
+      }
+    }
+  }
+
+  static final String STATE_COUNTER = "+listener=" + StateCounter.class.getName();
+
+  // Each of two threads writes several bytes to its own file
+  private static void writeToDifferentFiles() throws Exception {
+    Thread[] threads = new Thread[2];
+
+    for (int i = 0; i < threads.length; i++) {
+      final String fileName = (i == 0) ? "fileSandbox/testFile" : "fileSandbox/otherFile";
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            FileOutputStream fos = new FileOutputStream(fileName);
+            for (int j = 0; j < 3; j++) {
+              fos.write(j);
+            }
+            fos.close();
+          } catch (Exception ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      });
+    }
+
+    threads[0].start();
+    threads[1].start();
+  }
+
+  @Test
+  public void testFilePORReducesStatesOfWritesToDifferentFiles() throws Exception {
+    if (verifyNoPropertyViolation(STATE_COUNTER)) {
+      writeToDifferentFiles();
+    }
+
+    if (!isJPFRun()) {
+      int statesWithoutPOR = StateCounter.newStates;
+
+      if (verifyNoPropertyViolation(STATE_COUNTER, FILE_POR)) {
+        writeToDifferentFiles();
+      }
+
+      // Only first writes of each thread are scheduling points with file POR
+      assertTrue("File POR explored " + StateCounter.newStates + " states, without it "
+              + statesWithoutPOR + " states were explored", StateCounter.newStates < statesWithoutPOR);
+    }
+  }
+
+  // Two threads make their first writes to the same file. Byte written by
+  // lastWriter can't be overwritten only if there is a scheduling point before
+  // a first write of each thread
+  private static void raceFirstWrites(int lastWriter) throws Exception {
+    Thread[] threads = new Thread[2];
+
+    for (int i = 0; i < threads.length; i++) {
+      final int value = i + 1;
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rw");
+            raf.write(value);
+            raf.close();
+          } catch (Exception ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      });
+    }
+
+    threads[0].start();
+    threads[1].start();
+    threads[0].join();
+    threads[1].join();
+
+    FileInputStream fis = new FileInputStream("fileSandbox/testFile");
+    int written = fis.read();
+    fis.close();
+
+    assertFalse("Thread " + lastWriter + " wrote last", written == lastWriter);
+  }
+
+  @Test
+  public void testFirstThreadCanWriteLastWithFilePOR() throws Exception {
+    if (verifyUnhandledException("java.lang.AssertionError", FILE_POR)) {
+      raceFirstWrites(1);
+    }
+  }
+
+  @Test
+  public void testSecondThreadCanWriteLastWithFilePOR() throws Exception {
+    if (verifyUnhandledException("java.lang.AssertionError", FILE_POR)) {
+      raceFirstWrites(2);
+    }
+  }
 }
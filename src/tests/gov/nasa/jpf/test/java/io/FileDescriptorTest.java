@@ -25,6 +25,7 @@ import gov.nasa.jpf.util.test.TestJPF;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -197,6 +198,35 @@ public class FileDescriptorTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testDeleteAfterConcurrentOpenAndClose() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.opened_delete = error")) {
+      final File testFile = new File("fileSandbox/testFile");
+
+      Runnable openAndClose = new Runnable() {
+        public void run() {
+          try {
+            FileInputStream fis = new FileInputStream(testFile);
+            fis.close();
+          } catch (IOException ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      };
+
+      Thread t1 = new Thread(openAndClose);
+      Thread t2 = new Thread(openAndClose);
+      t1.start();
+      t2.start();
+      t1.join();
+      t2.join();
+
+      // Open counter is back to zero in every interleaving, so deleting
+      // a file isn't an error
+      assertTrue(testFile.delete());
+    }
+  }
+
   @Test
   public void testReadWhenFileRenamed() throws Exception {
     if (!isJPFRun()) {
@@ -257,4 +257,163 @@ public class FileOutputStreamTest extends TestJPF {
      fos.write(new byte[] {1, 2, 3});
     }
   }
+
+  @Test
+  public void testLogicalClock() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.clock = logical")) {
+      File testFile = new File("fileSandbox/testFile");
+      long lastModified = testFile.lastModified();
+
+      // Opening truncates a file and every write is a separate modification
+      FileOutputStream fos = new FileOutputStream(testFile);
+      fos.write(1);
+      fos.write(new byte[] {2, 3});
+      fos.close();
+
+      assertEquals(lastModified + 3, testFile.lastModified());
+    }
+  }
+
+  @Test
+  public void testFrozenClock() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.clock = frozen")) {
+      File testFile = new File("fileSandbox/testFile");
+      long lastModified = testFile.lastModified();
+
+      FileOutputStream fos = new FileOutputStream(testFile);
+      fos.write(1);
+      fos.close();
+
+      assertEquals(lastModified, testFile.lastModified());
+    }
+  }
+
+  @Test
+  public void testWriteWithAbstractedContent() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.abstract_content = *testFile")) {
+      FileOutputStream fos = new FileOutputStream("fileSandbox/testFile");
+      fos.write(new byte[] {1, 2, 3});
+      fos.close();
+
+      // Content isn't used in state matching, but reads return real data
+      FileInputStream fis = new FileInputStream("fileSandbox/testFile");
+      byte[] buffer = new byte[5];
+      int read = fis.read(buffer);
+      fis.close();
+
+      assertEquals(3, read);
+      assertReadResult(new byte[] {1, 2, 3}, buffer, read);
+    }
+  }
+
+  // Writes one of two different bytes. Nothing but a file is different after
+  // this method returns
+  private static void writeInBranch() throws Exception {
+    FileOutputStream fos = new FileOutputStream("fileSandbox/testFile");
+    fos.write(Verify.getBoolean() ? 2 : 1);
+    fos.close();
+  }
+
+  @Test
+  public void testStatesWithAbstractedContentMatch() throws Exception {
+    if (!isJPFRun()) {
+      Verify.resetCounter(0);
+    }
+
+    if (verifyNoPropertyViolation("+jpf-bfs.abstract_content = *testFile", "+jpf-bfs.clock = frozen")) {
+      writeInBranch();
+      // State of the second branch differs only in file content, so it's
+      // matched here and the counter is incremented only after the first branch
+      Verify.getBoolean();
+      Verify.incrementCounter(0);
+    }
+
+    if (!isJPFRun()) {
+      assertEquals(2, Verify.getCounter(0));
+    }
+  }
+
+  @Test
+  public void testWriteToSink() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.bfs.sink = *testFile")) {
+      File testFile = new File("fileSandbox/testFile");
+      long lastModified = testFile.lastModified();
+
+      FileOutputStream fos = new FileOutputStream(testFile);
+      fos.write(new byte[] {1, 2, 3});
+      fos.write(4);
+      fos.close();
+
+      // Only metadata is changed
+      assertEquals(4, testFile.length());
+      assertTrue(testFile.lastModified() >= lastModified);
+
+      FileInputStream fis = new FileInputStream(testFile);
+      assertEquals(4, fis.available());
+      try {
+        fis.read();
+        fail("Sink file shouldn't be readable");
+      } catch (IOException ex) {
+        // Expected
+      } finally {
+        fis.close();
+      }
+    }
+  }
+
+  @Test
+  public void testLogicalClockWithSink() throws Exception {
+    if (verifyNoPropertyViolation("+jpf-bfs.bfs.sink = *testFile", "+jpf-bfs.clock = logical")) {
+      File testFile = new File("fileSandbox/testFile");
+      long lastModified = testFile.lastModified();
+
+      FileOutputStream fos = new FileOutputStream(testFile);
+      fos.write(1);
+      fos.write(new byte[] {2, 3});
+      fos.close();
+
+      assertEquals(lastModified + 3, testFile.lastModified());
+    }
+  }
+
+  // Writes one or two bytes to a sink. Nothing but a length of a file is
+  // different after this method returns
+  private static void writeSinkInBranch() throws Exception {
+    FileOutputStream fos = new FileOutputStream("fileSandbox/testFile");
+    fos.write(Verify.getBoolean() ? new byte[] {1, 2} : new byte[] {1});
+    fos.close();
+  }
+
+  @Test
+  public void testSinkFilesOfDifferentLengthsDontMatch() throws Exception {
+    if (!isJPFRun()) {
+      Verify.resetCounter(0);
+    }
+
+    if (verifyNoPropertyViolation("+jpf-bfs.bfs.sink = *testFile", "+jpf-bfs.clock = frozen")) {
+      writeSinkInBranch();
+      // Length of a sink file is used in state matching, so states of both
+      // branches are explored
+      Verify.getBoolean();
+      Verify.incrementCounter(0);
+    }
+
+    if (!isJPFRun()) {
+      assertEquals(4, Verify.getCounter(0));
+    }
+  }
+
+  @Test
+  public void testRecreatedFileIsEmpty() throws Exception {
+    if (verifyNoPropertyViolation()) {
+      File testFile = new File("fileSandbox/testFile");
+      FileOutputStream fos = new FileOutputStream(testFile);
+      fos.write(new byte[] {1, 2, 3});
+      fos.close();
+
+      assertTrue(testFile.delete());
+      assertTrue(testFile.createNewFile());
+      assertEquals(0, testFile.length());
+    }
+  }
 }
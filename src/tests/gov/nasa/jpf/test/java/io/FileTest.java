@@ -18,13 +18,18 @@
 //
 package gov.nasa.jpf.test.java.io;
 
+import gov.nasa.jpf.FileInfo;
 import gov.nasa.jpf.jvm.Verify;
 import gov.nasa.jpf.util.FileUtils;
 import gov.nasa.jpf.util.test.TestJPF;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -282,6 +287,46 @@ public class FileTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testListIsReadByPages() throws IOException {
+    if (verifyNoPropertyViolation("+jpf-bfs.list_page_size = 2")) {
+      File parent = new File("fileSandbox/parent");
+      for (String name : new String[] {"e", "a", "d", "b"}) {
+        assertTrue(new File(parent, name).createNewFile());
+      }
+
+      String[] names = parent.list();
+      assertEquals(5, names.length);
+      assertEquals("a", names[0]);
+      assertEquals("b", names[1]);
+      assertEquals("child", names[2]);
+      assertEquals("d", names[3]);
+      assertEquals("e", names[4]);
+    }
+  }
+
+  @Test
+  public void testListMergesNativeAndNewChildrenInOrder() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File parent = new File("fileSandbox/parent");
+      assertTrue(new File(parent, "z").createNewFile());
+      assertTrue(new File(parent, "a").createNewFile());
+
+      String[] names = parent.list();
+      assertEquals(3, names.length);
+      assertEquals("a", names[0]);
+      assertEquals("child", names[1]);
+      assertEquals("z", names[2]);
+
+      // Cached native listing doesn't hide changes made by SUT
+      assertTrue(new File(parent, "child").delete());
+      names = parent.list();
+      assertEquals(2, names.length);
+      assertEquals("a", names[0]);
+      assertEquals("z", names[1]);
+    }
+  }
+
   @Test
   public void testListChildrenOfNotExistingDirectory() {
     if (verifyNoPropertyViolation()) {
@@ -514,6 +559,53 @@ public class FileTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testCanonicalPathsWithSmallCache() throws IOException {
+    if (verifyNoPropertyViolation("+jpf-bfs.canonical_cache_size = 1")) {
+      String childCP = new File("fileSandbox/parent/child").getCanonicalPath();
+      assertTrue(childCP.endsWith("fileSandbox" + File.separator + "parent" + File.separator + "child"));
+
+      // Paths are evicted from a cache of one entry and resolved again
+      for (int i = 0; i < 2; i++) {
+        assertEquals(childCP, new File("fileSandbox/./parent/child").getCanonicalPath());
+        assertEquals(childCP, new File("fileSandbox/parent/../parent/child").getCanonicalPath());
+      }
+
+      File[] children = new File("fileSandbox/parent").listFiles();
+      assertEquals(1, children.length);
+      assertEquals(childCP, children[0].getCanonicalPath());
+    }
+  }
+
+  @Test
+  public void testListedLinkIsResolvedToTarget() throws IOException {
+    if (!isJPFRun()) {
+      File links = new File("fileSandbox/links");
+      links.mkdir();
+      new File(links, "target").createNewFile();
+      Files.createSymbolicLink(Paths.get("fileSandbox/links/link"), Paths.get("target"));
+    }
+
+    if (verifyNoPropertyViolation()) {
+      File[] children = new File("fileSandbox/links").listFiles();
+      assertEquals(2, children.length);
+      assertEquals("link", children[0].getName());
+
+      File target = new File("fileSandbox/links/target");
+      assertEquals(target.getCanonicalPath(), children[0].getCanonicalPath());
+
+      // Link and its target share one file state
+      FileOutputStream fos = new FileOutputStream(children[0]);
+      fos.write(42);
+      fos.close();
+      assertEquals(1, target.length());
+    }
+
+    if (!isJPFRun()) {
+      FileUtils.removeRecursively(new File("fileSandbox/links"));
+    }
+  }
+
   @Test
   public void testGetName() {
     if (verifyNoPropertyViolation()) {
@@ -525,6 +617,65 @@ public class FileTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testNativeFileMetadata() throws IOException {
+    if (!isJPFRun()) {
+      FileOutputStream fos = new FileOutputStream("fileSandbox/nativeFile");
+      fos.write(new byte[] {1, 2, 3});
+      fos.close();
+
+      File nativeFile = new File("fileSandbox/nativeFile");
+      nativeFile.setExecutable(false, false);
+      nativeFile.setLastModified(1000000L);
+    }
+
+    if (verifyNoPropertyViolation()) {
+      File nativeFile = new File("fileSandbox/nativeFile");
+      assertTrue(nativeFile.isFile());
+      assertEquals(3, nativeFile.length());
+      assertEquals(1000000L, nativeFile.lastModified());
+      assertTrue(nativeFile.canRead());
+      assertTrue(nativeFile.canWrite());
+      // Nobody can execute a file without execute bits, superuser too
+      assertFalse(nativeFile.canExecute());
+
+      File parent = new File("fileSandbox/parent");
+      assertTrue(parent.isDirectory());
+      assertTrue(parent.canExecute());
+    }
+
+    if (!isJPFRun()) {
+      new File("fileSandbox/nativeFile").delete();
+    }
+  }
+
+  @Test
+  public void testPathOperationsUseGivenFilename() {
+    if (verifyNoPropertyViolation()) {
+      File child = new File(new File("fileSandbox"), "missing");
+      assertEquals("fileSandbox" + File.separator + "missing", child.getPath());
+      assertEquals("missing", child.getName());
+      assertEquals("fileSandbox", child.getParent());
+      assertEquals(0, child.compareTo(new File("fileSandbox/missing")));
+    }
+  }
+
+  @Test
+  public void testFileIsResolvedOnFirstUse() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      // Files are created before a file they point to
+      File first = new File("fileSandbox/later");
+      File second = new File("fileSandbox/later");
+
+      assertTrue(first.createNewFile());
+      assertTrue(second.exists());
+      assertEquals(first.getCanonicalPath(), second.getCanonicalPath());
+
+      assertTrue(second.delete());
+      assertFalse(first.exists());
+    }
+  }
+
   @Test
   public void testGetLengthOfNotExistingFile() {
     if (verifyNoPropertyViolation()) {
@@ -551,6 +702,47 @@ public class FileTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testCheckOfMissingFileDoesntCreateFileInfo() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File missing = new File("fileSandbox/missing/file");
+      assertFalse(missing.exists());
+      assertFalse(missing.isFile());
+      assertNull(missing.list());
+      assertNull(FileInfo.findFileInfo(missing.getCanonicalPath()));
+      assertNull(FileInfo.findFileInfo(new File("fileSandbox/missing").getCanonicalPath()));
+    }
+  }
+
+  @Test
+  public void testCreateFileThatWasMissing() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File first = new File("fileSandbox/newFile");
+      File second = new File("fileSandbox/newFile");
+      assertFalse(second.exists());
+
+      assertTrue(first.createNewFile());
+      assertTrue(second.exists());
+      assertNotNull(FileInfo.findFileInfo(first.getCanonicalPath()));
+    }
+  }
+
+  @Test
+  public void testTempFileNamesAreDeterministic() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File sandbox = new File("fileSandbox");
+      new File(sandbox, "tmp0.txt").createNewFile();
+
+      if (Verify.getBoolean()) {
+        new File(sandbox, "unrelated").createNewFile();
+      }
+
+      // Names are taken from a per-directory counter, existing files are skipped
+      assertEquals("tmp1.txt", File.createTempFile("tmp", ".txt", sandbox).getName());
+      assertEquals("tmp2.txt", File.createTempFile("tmp", ".txt", sandbox).getName());
+    }
+  }
+
   @Test
   public void testCreateTempFileInNotExistingDir() throws IOException {
     if (verifyUnhandledException("java.io.IOException")) {
@@ -607,6 +799,31 @@ public class FileTest extends TestJPF {
     }
   }
 
+  @Test
+  public void testRenameWrittenFile() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File file = new File("fileSandbox/written");
+      FileOutputStream fos = new FileOutputStream(file);
+      fos.write(new byte[] {1, 2, 3});
+      fos.close();
+      assertTrue(file.setExecutable(true));
+
+      File dest = new File("fileSandbox/renamed");
+      assertTrue(file.renameTo(dest));
+      assertFalse(file.exists());
+      assertEquals(3, dest.length());
+      // Permissions are moved with a file
+      assertTrue(dest.canExecute());
+
+      FileInputStream fis = new FileInputStream(dest);
+      assertEquals(1, fis.read());
+      assertEquals(2, fis.read());
+      assertEquals(3, fis.read());
+      assertEquals(-1, fis.read());
+      fis.close();
+    }
+  }
+
   @Test
   public void testRenameFileThatNotExist() {
     if (verifyNoPropertyViolation()) {
@@ -694,6 +911,49 @@ public class FileTest extends TestJPF {
     }
   }  
   
+  @Test
+  public void testListRenamedDirectory() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File parent = new File("fileSandbox/parent");
+      File newFile = new File("fileSandbox/parent/newFile");
+      newFile.createNewFile();
+
+      File dest = new File("fileSandbox/dest");
+
+      Verify.getBoolean();
+      assertTrue(parent.renameTo(dest));
+
+      String[] expectedChilds = {"child", "newFile"};
+      assertSameStrings(expectedChilds, dest.list());
+      assertTrue("Children of a renamed directory should be accessible by a new path",
+                 new File("fileSandbox/dest/child").isDirectory());
+    }
+  }
+
+  @Test
+  public void testRecreateDeletedChildOfRenamedDirectory() throws IOException {
+    if (verifyNoPropertyViolation()) {
+      File child = new File("fileSandbox/parent/child");
+      assertTrue(child.delete());
+
+      File dest = new File("fileSandbox/dest");
+      assertTrue(new File("fileSandbox/parent").renameTo(dest));
+
+      File destChild = new File("fileSandbox/dest/child");
+      assertFalse("Deleted child shouldn't exist in a renamed directory", destChild.exists());
+      assertTrue(destChild.createNewFile());
+
+      FileOutputStream fos = new FileOutputStream(destChild);
+      fos.write(42);
+      fos.close();
+
+      FileInputStream fis = new FileInputStream(destChild);
+      assertEquals(42, fis.read());
+      assertEquals(-1, fis.read());
+      fis.close();
+    }
+  }
+
   @Test
   public void testBacktrackableReadableFlagSetting() {
     if (verifyNoPropertyViolation()) {
@@ -759,4 +759,91 @@ public class RandomAccessFileTest extends TestJPF {
       assertReadResult(new byte[] {1, 2, 3, 4, 5, 6}, buffer, read);
     }
   }
+
+  // Sets one of two lengths. Nothing but a file is different after this method
+  // returns, so states are matched only by file state
+  private static void setLengthInBranch() throws Exception {
+    RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+    raf.setLength(Verify.getBoolean() ? 3 : 2);
+    raf.close();
+  }
+
+  @Test
+  public void testStatesWithDifferentLengthsDontMatch() throws Exception {
+    if (verifyUnhandledException("java.lang.AssertionError")) {
+      setLengthInBranch();
+      // States are matched at this choice point. If a state with a longer file
+      // matched a state with a shorter one, the assertion wouldn't fail
+      Verify.getBoolean();
+      assertEquals(2, new File("fileSandbox/testFile").length());
+    }
+  }
+
+  // Overwrites a byte with one of two values
+  private static void overwriteInBranch() throws Exception {
+    RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+    raf.write(1);
+    raf.seek(0);
+    raf.write(Verify.getBoolean() ? 3 : 2);
+    raf.close();
+  }
+
+  @Test
+  public void testStatesWithDifferentContentDontMatch() throws Exception {
+    if (verifyUnhandledException("java.lang.AssertionError")) {
+      overwriteInBranch();
+      Verify.getBoolean();
+
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "r");
+      int value = raf.read();
+      raf.close();
+      assertEquals(2, value);
+    }
+  }
+
+  // Writes equal content in two ways. The second way overwrites a part of its
+  // own write chunk and truncates both a chunk and native content
+  private static void writeEqualContentInBranch() throws Exception {
+    RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+    raf.seek(1);
+
+    if (!Verify.getBoolean()) {
+      raf.write(7);
+    } else {
+      raf.write(new byte[] {7, 8});
+      raf.write(9);
+    }
+
+    raf.setLength(2);
+    raf.close();
+  }
+
+  @Test
+  public void testStatesWithEqualContentMatch() throws Exception {
+    if (!isJPFRun()) {
+      Verify.resetCounter(0);
+
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "rws");
+      raf.write(new byte[] {1, 2, 3, 4});
+      raf.close();
+    }
+
+    if (verifyNoPropertyViolation("+jpf-bfs.clock = frozen")) {
+      writeEqualContentInBranch();
+      // State of the second branch is matched with a state of the first one
+      // here, so the counter is incremented only after the first branch
+      Verify.getBoolean();
+      Verify.incrementCounter(0);
+
+      RandomAccessFile raf = new RandomAccessFile("fileSandbox/testFile", "r");
+      byte[] buffer = new byte[4];
+      int read = raf.read(buffer);
+      raf.close();
+      assertReadResult(new byte[] {1, 7}, buffer, read);
+    }
+
+    if (!isJPFRun()) {
+      assertEquals(2, Verify.getCounter(0));
+    }
+  }
 }